@@ -0,0 +1,216 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Compresses every regular file under a source directory into a mirror
+// tree under a destination directory, one `.huff` file per input.
+//
+// All files share a single worker pool whose concurrency is capped at
+// `workers` tasks. When the running JDK offers virtual threads, each file
+// gets its own virtual thread (so blocking reads and writes don't pin a
+// carrier) and a semaphore provides the bound; otherwise a fixed pool of
+// platform threads is used.
+//
+// Every output is first written to a temporary sibling and then renamed
+// into place, so a reader never observes a half-written `.huff` file.
+public class BatchEncoder {
+  private static final String SUFFIX = ".huff";
+  private static final String TEMP_SUFFIX = ".part";
+  private static final String USAGE =
+    "Usage: HuffmanCodes --batch SOURCE_DIR DEST_DIR [WORKERS]";
+
+  private final Path sourceDir;
+  private final Path destDir;
+  private final int workers;
+
+  private final AtomicInteger filesDone = new AtomicInteger();
+  private final AtomicInteger filesFailed = new AtomicInteger();
+  private final AtomicLong bytesIn = new AtomicLong();
+  private final AtomicLong bytesOut = new AtomicLong();
+
+  public BatchEncoder(Path sourceDir, Path destDir, int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException(
+        String.format("Worker count must be positive: %d", workers));
+    }
+    this.sourceDir = sourceDir;
+    this.destDir = destDir;
+    this.workers = workers;
+  }
+
+  // Walks the source tree, compresses all files and blocks until every
+  // task has finished. Individual failures are reported on stderr and
+  // counted in the returned summary rather than aborting the batch.
+  public Summary run() throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Semaphore permits = new Semaphore(workers);
+    ExecutorService pool = newWorkerExecutor(workers);
+    try {
+      Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isRegularFile()) {
+            try {
+              permits.acquire();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              return FileVisitResult.TERMINATE;
+            }
+            pool.execute(() -> {
+              try {
+                compressOne(file, attrs.size());
+              } finally {
+                permits.release();
+              }
+            });
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        // An entry that can't be read, or a directory that can't be
+        // listed, fails on its own; the rest of the tree is still walked.
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          fail(file, e);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+          if (e != null) {
+            fail(dir, e);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } finally {
+      pool.shutdown();
+    }
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    return new Summary(filesDone.get(), filesFailed.get(), bytesIn.get(),
+                       bytesOut.get(), System.nanoTime() - start);
+  }
+
+  private void compressOne(Path file, long size) {
+    Path target = destDir.resolve(sourceDir.relativize(file).toString() + SUFFIX);
+    Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+    try {
+      Files.createDirectories(target.getParent());
+      HuffmanCodes codec = new HuffmanCodes();
+      codec.setVerbose(false);
+      codec.encode(file.toString(), temp.toString());
+      moveIntoPlace(temp, target);
+      bytesIn.addAndGet(size);
+      bytesOut.addAndGet(Files.size(target));
+      filesDone.incrementAndGet();
+    } catch (Exception e) {
+      fail(file, e);
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        /* best effort */
+      }
+    }
+  }
+
+  private void fail(Path file, Exception e) {
+    filesFailed.incrementAndGet();
+    System.err.println(String.format("Error: %s: %s", file, e));
+  }
+
+  static void moveIntoPlace(Path temp, Path target) throws IOException {
+    try {
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                 StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  // Uses a virtual-thread-per-task executor where the JDK has one (21+),
+  // falling back to a fixed pool of platform threads on older runtimes.
+  static ExecutorService newWorkerExecutor(int workers) {
+    ExecutorService virtual = newVirtualThreadExecutor();
+    return (virtual != null) ? virtual : Executors.newFixedThreadPool(workers);
+  }
+
+  // A virtual-thread-per-task executor, or null before JDK 21.
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      MethodHandle factory = MethodHandles.publicLookup().findStatic(
+        Executors.class, "newVirtualThreadPerTaskExecutor",
+        MethodType.methodType(ExecutorService.class));
+      return (ExecutorService) factory.invokeExact();
+    } catch (Throwable e) {
+      return null;
+    }
+  }
+
+  public static class Summary {
+    public final int files;
+    public final int failures;
+    public final long bytesIn;
+    public final long bytesOut;
+    public final long elapsedNanos;
+
+    Summary(int files, int failures, long bytesIn, long bytesOut,
+            long elapsedNanos) {
+      this.files = files;
+      this.failures = failures;
+      this.bytesIn = bytesIn;
+      this.bytesOut = bytesOut;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public double ratio() {
+      return (bytesIn == 0) ? 0.0 : (double) bytesOut / bytesIn;
+    }
+
+    public double megabytesPerSecond() {
+      double seconds = elapsedNanos / 1e9;
+      return (seconds == 0) ? 0.0 : bytesIn / (1024.0 * 1024.0) / seconds;
+    }
+
+    public String toString() {
+      return String.format(
+        "%d files (%d failed), %d -> %d bytes, ratio %.3f, %.3f s, %.2f MB/s",
+        files, failures, bytesIn, bytesOut, ratio(), elapsedNanos / 1e9,
+        megabytesPerSecond());
+    }
+  }
+
+  // Usage: --batch SOURCE_DIR DEST_DIR [WORKERS]
+  // Exits with status 1 if any file failed.
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+    try {
+      int workers = Runtime.getRuntime().availableProcessors();
+      if (args.length > 2) {
+        workers = Integer.parseInt(args[2]);
+      }
+      BatchEncoder batch = new BatchEncoder(Paths.get(args[0]),
+                                            Paths.get(args[1]), workers);
+      Summary summary = batch.run();
+      System.out.println(summary);
+      if (summary.failures > 0) {
+        System.exit(1);
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(USAGE);
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+import java.io.*;
+
+// An in-memory counterpart to BitInputStream, reading bits most-significant
+// first from a region of a byte array. Reading past the end of the region
+// throws an EOFException instead of returning garbage, so a corrupt stream
+// can't send a decoder into an endless loop.
+public class BitReader {
+  private final byte[] buffer;
+  private final long start;
+  private final long limit;
+  private long position;
+
+  public BitReader(byte[] buffer) {
+    this(buffer, 0, buffer.length);
+  }
+
+  public BitReader(byte[] buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.start = (long) offset * 8;
+    this.position = start;
+    this.limit = (long) (offset + length) * 8;
+  }
+
+  private BitReader(BitReader other) {
+    this.buffer = other.buffer;
+    this.start = other.start;
+    this.limit = other.limit;
+    this.position = other.position;
+  }
+
+  // A second reader over the same region, at the same position, that moves
+  // independently of this one.
+  public BitReader duplicate() {
+    return new BitReader(this);
+  }
+
+  public int readBit() throws IOException {
+    if (position >= limit) {
+      throw new EOFException("Read past end of bit stream");
+    }
+    int bit = (buffer[(int) (position >>> 3)] >>> (7 - (int) (position & 7))) & 1;
+    position++;
+    return bit;
+  }
+
+  // Reads `count` bits (between 0 and 32), high bit first.
+  public int readBits(int count) throws IOException {
+    int value = 0;
+    for (int i = 0; i < count; i++) {
+      value = (value << 1) | readBit();
+    }
+    return value;
+  }
+
+  // Returns the next `count` bits (between 1 and 25) without consuming
+  // them. Bits past the end read as zero; `skipBits` is what enforces the
+  // limit.
+  public int peekBits(int count) {
+    int index = (int) (position >>> 3);
+    int end = (int) (limit >>> 3);
+    int window;
+    if (index + 4 <= end) {
+      window = ((buffer[index] & 0xFF) << 24) | ((buffer[index + 1] & 0xFF) << 16)
+        | ((buffer[index + 2] & 0xFF) << 8) | (buffer[index + 3] & 0xFF);
+    } else {
+      window = 0;
+      for (int k = 0; k < 4; k++) {
+        window <<= 8;
+        if (index + k < end) {
+          window |= buffer[index + k] & 0xFF;
+        }
+      }
+    }
+    return (window << (int) (position & 7)) >>> (32 - count);
+  }
+
+  public void skipBits(int count) throws IOException {
+    if (position + count > limit) {
+      throw new EOFException("Read past end of bit stream");
+    }
+    position += count;
+  }
+
+  public int readByte() throws IOException {
+    return readBits(8);
+  }
+
+  public int readInt() throws IOException {
+    return readBits(32);
+  }
+
+  // Number of bits consumed so far.
+  public long tally() {
+    return position - start;
+  }
+
+  public long remaining() {
+    return limit - position;
+  }
+}
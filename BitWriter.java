@@ -0,0 +1,141 @@
+import java.util.*;
+
+// An in-memory counterpart to BitOutputStream. Bits are packed
+// most-significant first into a growable byte array, so that a block can be
+// fully encoded (and its size known) before anything is written to the
+// underlying file.
+//
+// A writer built over a BufferPool takes its buffer from the pool, grows
+// through it, and hands it back on `release`; `reset` lets one writer code
+// block after block without reallocating.
+public class BitWriter {
+  private final BufferPool pool;
+  private byte[] buffer;
+  private int size;
+  private long accumulator;
+  private int pending;
+  private long tally;
+
+  public BitWriter() {
+    this(1024);
+  }
+
+  public BitWriter(int initialCapacity) {
+    this.pool = null;
+    this.buffer = new byte[Math.max(16, initialCapacity)];
+  }
+
+  public BitWriter(int initialCapacity, BufferPool pool) {
+    this.pool = pool;
+    this.buffer = pool.acquire(Math.max(16, initialCapacity));
+  }
+
+  // Discards everything written so far, keeping the buffer.
+  public void reset() {
+    size = 0;
+    accumulator = 0;
+    pending = 0;
+    tally = 0;
+  }
+
+  // Returns the buffer to the pool, if any. The writer must not be used
+  // afterwards.
+  public void release() {
+    if (pool != null) {
+      pool.release(buffer);
+    }
+    buffer = null;
+  }
+
+  public void writeBit(int bit) {
+    writeBits(bit & 1, 1);
+  }
+
+  // Writes the low `count` bits of `value`, high bit first. `count` must be
+  // between 0 and 32.
+  public void writeBits(int value, int count) {
+    if (count == 0) {
+      return;
+    }
+    accumulator = (accumulator << count) | (value & (0xFFFFFFFFL >>> (32 - count)));
+    pending += count;
+    tally += count;
+    while (pending >= 8) {
+      pending -= 8;
+      put((byte) (accumulator >>> pending));
+    }
+  }
+
+  public void writeByte(int value) {
+    writeBits(value & 0xFF, 8);
+  }
+
+  public void writeInt(int value) {
+    writeBits(value, 32);
+  }
+
+  // Writes zero bits up to the next byte boundary.
+  public void padToByte() {
+    if (pending > 0) {
+      writeBits(0, 8 - pending);
+    }
+  }
+
+  // Overwrites the four bytes already written at `byteOffset` with `value`.
+  public void setInt(int byteOffset, int value) {
+    if (byteOffset < 0 || byteOffset + 4 > size) {
+      throw new IllegalArgumentException(
+        String.format("Offset %d not within %d written bytes", byteOffset, size));
+    }
+    buffer[byteOffset] = (byte) (value >>> 24);
+    buffer[byteOffset + 1] = (byte) (value >>> 16);
+    buffer[byteOffset + 2] = (byte) (value >>> 8);
+    buffer[byteOffset + 3] = (byte) value;
+  }
+
+  // Number of bits written so far, not counting the final padding.
+  public long tally() {
+    return tally;
+  }
+
+  // Number of whole bytes the output occupies once padded.
+  public int size() {
+    return size + ((pending > 0) ? 1 : 0);
+  }
+
+  // Returns the written bits, with the last byte zero-padded on the right.
+  public byte[] toByteArray() {
+    byte[] result = Arrays.copyOf(buffer, size());
+    if (pending > 0) {
+      result[size] = (byte) (accumulator << (8 - pending));
+    }
+    return result;
+  }
+
+  // Pads the last byte in place and returns the backing array, whose first
+  // `size()` bytes hold the output. Valid until the next write, `reset` or
+  // `release`; unlike `toByteArray` this doesn't copy.
+  public byte[] array() {
+    if (pending > 0) {
+      ensureCapacity(size + 1);
+      buffer[size] = (byte) (accumulator << (8 - pending));
+    }
+    return buffer;
+  }
+
+  private void put(byte b) {
+    if (size == buffer.length) {
+      ensureCapacity(size + 1);
+    }
+    buffer[size++] = b;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= buffer.length) {
+      return;
+    }
+    int target = Math.max(capacity, buffer.length * 2);
+    buffer = (pool != null) ? pool.grow(buffer, size, target)
+      : Arrays.copyOf(buffer, target);
+  }
+}
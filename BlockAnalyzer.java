@@ -0,0 +1,210 @@
+import java.io.*;
+import java.util.*;
+
+// Reports, per block and for the whole input, how close a byte-wise
+// Huffman code gets to the input's order-0 entropy, to show where ratio is
+// lost when tuning block sizes and levels.
+//
+// For each block of `blockSize` bytes and for the input as a whole (as
+// one histogram, the way `HuffmanCodes.encode` codes it) the report gives:
+// the Shannon entropy of the byte histogram, the code bits the Huffman
+// code for that histogram achieves (as `byteSize` counts them), the tree
+// bits `writeTree` would add, the longest code, and a summary of the
+// distribution: distinct byte values and the most frequent one's share.
+// The total also sums the per-block code and tree bits, which is what
+// coding block by block with a fresh tree each time would cost.
+//
+// The input is read once, block by block, and nothing is encoded; block
+// rows are written as soon as each block is counted.
+public class BlockAnalyzer {
+  public enum Format { JSON, CSV }
+
+  private static final String[] COLUMNS = {
+    "block", "offset", "length", "distinct", "top_symbol", "top_share",
+    "entropy_bits_per_byte", "entropy_bits", "code_bits", "tree_bits",
+    "max_code_length", "efficiency", "overhead"
+  };
+
+  private final int blockSize;
+  private final Format format;
+  private final Kernels kernels = Kernels.get();
+
+  public BlockAnalyzer(int blockSize, Format format) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException(
+        String.format("Block size must be positive: %d", blockSize));
+    }
+    this.blockSize = blockSize;
+    this.format = format;
+  }
+
+  // Reads `in` to the end and writes the report for it to `out`. `name`
+  // labels the input in JSON output.
+  public void analyze(InputStream in, String name, PrintStream out)
+      throws IOException {
+    byte[] block = new byte[blockSize];
+    int[] counts = new int[256];
+    long[] total = new long[256];
+    long offset = 0;
+    long blockBits = 0;
+    int blocks = 0;
+    if (format == Format.JSON) {
+      out.printf("{\"file\": %s, \"block_size\": %d, \"blocks\": [",
+                 quote(name), blockSize);
+    } else {
+      out.println(String.join(",", COLUMNS) + ",block_bits");
+    }
+    int length;
+    while ((length = in.readNBytes(block, 0, blockSize)) > 0) {
+      Arrays.fill(counts, 0);
+      kernels.histogram(block, 0, length, counts);
+      long[] wide = new long[256];
+      for (int s = 0; s < 256; s++) {
+        wide[s] = counts[s];
+        total[s] += counts[s];
+      }
+      Stats stats = new Stats(wide);
+      blockBits += stats.codeBits + stats.treeBits;
+      if (format == Format.JSON) {
+        out.print((blocks == 0) ? "\n  " : ",\n  ");
+        out.print(stats.json(blocks, offset));
+      } else {
+        out.println(stats.csv(blocks, offset) + ",");
+      }
+      offset += length;
+      blocks++;
+    }
+    Stats overall = new Stats(total);
+    if (format == Format.JSON) {
+      out.print((blocks == 0) ? "],\n" : "\n],\n");
+      out.printf("\"total\": %s,%n\"block_bits\": %d}%n",
+                 overall.json("total", 0), blockBits);
+    } else {
+      out.println(overall.csv("total", 0) + "," + blockBits);
+    }
+    out.flush();
+  }
+
+  private static String quote(String text) {
+    StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  // The figures for one histogram.
+  private static final class Stats {
+    final long length;
+    final int distinct;
+    final int topSymbol;
+    final double topShare;
+    final double entropyPerByte;
+    final long codeBits;
+    final long treeBits;
+    final int maxCodeLength;
+
+    Stats(long[] counts) {
+      long length = 0;
+      int distinct = 0;
+      int topSymbol = -1;
+      for (int s = 0; s < 256; s++) {
+        length += counts[s];
+        if (counts[s] > 0) {
+          distinct++;
+          if (topSymbol < 0 || counts[s] > counts[topSymbol]) {
+            topSymbol = s;
+          }
+        }
+      }
+      double entropy = 0;
+      long codeBits = 0;
+      long treeBits = 0;
+      int maxCodeLength = 0;
+      if (length > 0) {
+        for (int s = 0; s < 256; s++) {
+          if (counts[s] > 0) {
+            double p = (double) counts[s] / length;
+            entropy -= p * Math.log(p) / Math.log(2);
+          }
+        }
+        CodeTree tree = CodeTree.build(counts);
+        treeBits = SizeEstimator.treeBits(tree);
+        codeBits = SizeEstimator.codeBits(tree, counts);
+        for (int s = 0; s < 256; s++) {
+          maxCodeLength = Math.max(maxCodeLength, tree.length(s));
+        }
+      }
+      this.length = length;
+      this.distinct = distinct;
+      this.topSymbol = topSymbol;
+      this.topShare = (length == 0) ? 0.0 : (double) counts[topSymbol] / length;
+      this.entropyPerByte = entropy;
+      this.codeBits = codeBits;
+      this.treeBits = treeBits;
+      this.maxCodeLength = maxCodeLength;
+    }
+
+    double entropyBits() {
+      return entropyPerByte * length;
+    }
+
+    // Entropy over achieved code bits: 1 for a code that meets the bound.
+    double efficiency() {
+      return (codeBits == 0) ? 1.0 : entropyBits() / codeBits;
+    }
+
+    // Share of the coded size taken by the tree.
+    double overhead() {
+      return (codeBits + treeBits == 0) ? 0.0
+        : (double) treeBits / (codeBits + treeBits);
+    }
+
+    Object[] values(Object label, long offset) {
+      return new Object[] {
+        label, offset, length, distinct, topSymbol, topShare,
+        entropyPerByte, entropyBits(), codeBits, treeBits, maxCodeLength,
+        efficiency(), overhead()
+      };
+    }
+
+    String csv(Object label, long offset) {
+      StringBuilder row = new StringBuilder();
+      for (Object value : values(label, offset)) {
+        if (row.length() > 0) {
+          row.append(',');
+        }
+        row.append(format(value));
+      }
+      return row.toString();
+    }
+
+    String json(Object label, long offset) {
+      Object[] values = values(label, offset);
+      StringBuilder object = new StringBuilder("{");
+      for (int i = 0; i < COLUMNS.length; i++) {
+        if (i > 0) {
+          object.append(", ");
+        }
+        object.append('"').append(COLUMNS[i]).append("\": ");
+        object.append((values[i] instanceof String)
+                      ? quote((String) values[i]) : format(values[i]));
+      }
+      return object.append('}').toString();
+    }
+
+    private static String format(Object value) {
+      if (value instanceof Double) {
+        return String.format(Locale.ROOT, "%.6f", (Double) value);
+      }
+      return String.valueOf(value);
+    }
+  }
+}
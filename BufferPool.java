@@ -0,0 +1,163 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// A pool of reusable byte arrays, so that coding a stream block by block
+// doesn't allocate (and leave for the collector) a fresh block-sized buffer
+// for every input block, payload and output.
+//
+// Buffers come in power-of-two size classes from 4 KiB up to 32 MiB; a
+// request is served from the smallest class that fits, so `acquire` may
+// return an array longer than asked for. Each class keeps at most
+// `maxPerClass` idle buffers, and the pool as a whole at most `maxIdleBytes`
+// of them. Larger requests are allocated directly and never retained. All
+// methods are safe to call from several threads.
+public class BufferPool {
+  private static final int MIN_CLASS_BITS = 12;
+  private static final int MAX_CLASS_BITS = 25;
+  private static final int DEFAULT_MAX_PER_CLASS = 16;
+  // Enough for a few threads' worth of the largest blocks.
+  private static final long DEFAULT_MAX_IDLE_BYTES = 64L * 1024 * 1024;
+
+  private static final BufferPool SHARED =
+    new BufferPool(DEFAULT_MAX_PER_CLASS, DEFAULT_MAX_IDLE_BYTES);
+
+  private final ConcurrentLinkedDeque<byte[]>[] free;
+  private final AtomicInteger[] idle;
+  private final int maxPerClass;
+  private final long maxIdleBytes;
+  private final AtomicLong idleTotal = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong releases = new AtomicLong();
+  private final AtomicLong discards = new AtomicLong();
+
+  // The process-wide pool used by codecs that aren't given one.
+  public static BufferPool shared() {
+    return SHARED;
+  }
+
+  public BufferPool(int maxPerClass) {
+    this(maxPerClass, Long.MAX_VALUE);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public BufferPool(int maxPerClass, long maxIdleBytes) {
+    if (maxPerClass < 0) {
+      throw new IllegalArgumentException(
+        String.format("Pool depth must not be negative: %d", maxPerClass));
+    }
+    if (maxIdleBytes < 0) {
+      throw new IllegalArgumentException(
+        String.format("Idle byte limit must not be negative: %d", maxIdleBytes));
+    }
+    int classes = MAX_CLASS_BITS - MIN_CLASS_BITS + 1;
+    this.free = new ConcurrentLinkedDeque[classes];
+    this.idle = new AtomicInteger[classes];
+    for (int c = 0; c < classes; c++) {
+      free[c] = new ConcurrentLinkedDeque<byte[]>();
+      idle[c] = new AtomicInteger();
+    }
+    this.maxPerClass = maxPerClass;
+    this.maxIdleBytes = maxIdleBytes;
+  }
+
+  // Returns an array of at least `minLength` bytes. Its contents are
+  // unspecified.
+  public byte[] acquire(int minLength) {
+    int c = classOf(minLength);
+    if (c < 0) {
+      misses.incrementAndGet();
+      return new byte[minLength];
+    }
+    byte[] buffer = free[c].pollFirst();
+    if (buffer != null) {
+      idle[c].decrementAndGet();
+      idleTotal.addAndGet(-buffer.length);
+      hits.incrementAndGet();
+      return buffer;
+    }
+    misses.incrementAndGet();
+    return new byte[1 << (c + MIN_CLASS_BITS)];
+  }
+
+  // Hands `buffer` back for reuse. The caller must not touch it afterwards.
+  // Arrays that didn't come from `acquire`, or that would overfill their
+  // class, are simply dropped.
+  public void release(byte[] buffer) {
+    if (buffer == null) {
+      return;
+    }
+    int c = classOf(buffer.length);
+    if (c < 0 || buffer.length != 1 << (c + MIN_CLASS_BITS)) {
+      discards.incrementAndGet();
+      return;
+    }
+    if (idle[c].incrementAndGet() > maxPerClass) {
+      idle[c].decrementAndGet();
+      discards.incrementAndGet();
+      return;
+    }
+    if (idleTotal.addAndGet(buffer.length) > maxIdleBytes) {
+      idleTotal.addAndGet(-buffer.length);
+      idle[c].decrementAndGet();
+      discards.incrementAndGet();
+      return;
+    }
+    free[c].addFirst(buffer);
+    releases.incrementAndGet();
+  }
+
+  // Returns an array of at least `minLength` bytes holding the first `used`
+  // bytes of `buffer`, and releases `buffer`.
+  public byte[] grow(byte[] buffer, int used, int minLength) {
+    byte[] larger = acquire(minLength);
+    System.arraycopy(buffer, 0, larger, 0, used);
+    release(buffer);
+    return larger;
+  }
+
+  // Index of the smallest size class holding `length` bytes, or -1 if it
+  // is too large to pool.
+  private static int classOf(int length) {
+    if (length <= 1 << MIN_CLASS_BITS) {
+      return 0;
+    }
+    int bits = 32 - Integer.numberOfLeadingZeros(length - 1);
+    return (bits > MAX_CLASS_BITS) ? -1 : bits - MIN_CLASS_BITS;
+  }
+
+  // Number of `acquire` calls served from an idle buffer.
+  public long getHits() {
+    return hits.get();
+  }
+
+  // Number of `acquire` calls that had to allocate.
+  public long getMisses() {
+    return misses.get();
+  }
+
+  // Number of buffers taken back for reuse.
+  public long getReleases() {
+    return releases.get();
+  }
+
+  // Number of released buffers dropped instead of kept.
+  public long getDiscards() {
+    return discards.get();
+  }
+
+  // Bytes currently held by idle buffers.
+  public long idleBytes() {
+    return idleTotal.get();
+  }
+
+  public String toString() {
+    long requests = hits.get() + misses.get();
+    return String.format(
+      "%d hits, %d misses (%.1f%% hit rate), %d released, %d discarded, %d bytes idle",
+      hits.get(), misses.get(),
+      (requests == 0) ? 0.0 : 100.0 * hits.get() / requests,
+      releases.get(), discards.get(), idleBytes());
+  }
+}
@@ -0,0 +1,97 @@
+import java.io.*;
+
+// Burrows-Wheeler transform of one block, as in bzip2. Sorting the block's
+// rotations groups bytes that share a following context, which the
+// MoveToFrontTransform that normally follows turns into runs of small
+// values for the Huffman coder.
+//
+// The sort is a suffix sort with an implicit end-of-block sentinel, done in
+// linear time by SuffixArray. Output is the 4-byte big-endian index of the
+// sentinel row followed by the last column, sentinel omitted.
+public class BurrowsWheelerTransform implements Transform {
+  public static final int ID = 2;
+
+  public int id() {
+    return ID;
+  }
+
+  public int maxForwardLength(int length) {
+    return length + 4;
+  }
+
+  public byte[] forward(byte[] data, int offset, int length) {
+    int[] sa = SuffixArray.build(data, offset, length);
+    byte[] out = new byte[length + 4];
+    // Row 0 is the sentinel's own rotation, whose last byte is the block's
+    // last byte; rows 1..n follow the suffix array.
+    int primary = 0;
+    int pos = 4;
+    if (length > 0) {
+      out[pos++] = data[offset + length - 1];
+    }
+    for (int i = 0; i < length; i++) {
+      if (sa[i] == 0) {
+        primary = i + 1;
+      } else {
+        out[pos++] = data[offset + sa[i] - 1];
+      }
+    }
+    out[0] = (byte) (primary >>> 24);
+    out[1] = (byte) (primary >>> 16);
+    out[2] = (byte) (primary >>> 8);
+    out[3] = (byte) primary;
+    return out;
+  }
+
+  public byte[] inverse(byte[] data, int length, int maxLength)
+      throws IOException {
+    if (length < 4) {
+      throw new IOException("Truncated Burrows-Wheeler block");
+    }
+    int n = length - 4;
+    if (n > maxLength) {
+      throw new IOException("Burrows-Wheeler output too long");
+    }
+    int primary = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16)
+      | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    if (n == 0) {
+      return new byte[0];
+    }
+    if (primary < 1 || primary > n) {
+      throw new IOException("Corrupt Burrows-Wheeler index");
+    }
+
+    // The last column has n + 1 rows once the sentinel is put back at
+    // `primary`; `lastAt` maps a row to its byte in `data`.
+    int[] counts = new int[257];
+    for (int i = 4; i < length; i++) {
+      counts[(data[i] & 0xFF) + 1]++;
+    }
+    int[] next = new int[257];
+    next[0] = 1;
+    for (int c = 0; c < 256; c++) {
+      next[c + 1] = next[c] + counts[c + 1];
+    }
+    int[] lf = new int[n + 1];
+    for (int row = 0; row <= n; row++) {
+      if (row == primary) {
+        lf[row] = 0;
+      } else {
+        int c = data[lastAt(row, primary)] & 0xFF;
+        lf[row] = next[c]++;
+      }
+    }
+
+    byte[] out = new byte[n];
+    int row = 0;
+    for (int k = n - 1; k >= 0; k--) {
+      out[k] = data[lastAt(row, primary)];
+      row = lf[row];
+    }
+    return out;
+  }
+
+  private static int lastAt(int row, int primary) {
+    return (row < primary) ? row + 4 : row + 3;
+  }
+}
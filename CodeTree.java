@@ -0,0 +1,266 @@
+import java.io.*;
+import java.util.*;
+
+// The byte-alphabet Huffman tree used by HuffmanCodes, held as two parallel
+// arrays of child indices rather than a graph of node objects.
+//
+// Decision nodes are numbered from 0. A child index below 0 is a leaf for
+// byte `~index`, so 0x00 is -1 and 0xFF is -256. 256 symbols need at most
+// 255 decision nodes, so both arrays together take about 1 KB. Building,
+// reading, writing and code assignment all walk the tree with explicit
+// stacks bounded by that count, so a deep, skewed tree can't overflow the
+// call stack.
+public class CodeTree {
+  public static final int MAX_DECISION_NODES = 255;
+  // Leaves are sorted as (count << 8 | symbol), which leaves 55 bits for
+  // the count.
+  public static final long MAX_COUNT = Long.MAX_VALUE >>> 8;
+
+  private final short[] child0 = new short[MAX_DECISION_NODES];
+  private final short[] child1 = new short[MAX_DECISION_NODES];
+  private short root;
+  private int decisionNodes;
+  // Codes are right-aligned. A code longer than 64 bits needs a tree whose
+  // counts total at least fib(67), about 4.4e13, far beyond any input
+  // HuffmanCodes can hold in memory.
+  private final long[] codes = new long[256];
+  private final int[] lengths = new int[256];
+
+  private CodeTree() {
+  }
+
+  // Builds the tree for the given byte counts, indexed by unsigned byte
+  // value. At least one count must be positive.
+  public static CodeTree build(int[] counts) {
+    long[] wide = new long[256];
+    for (int s = 0; s < 256; s++) {
+      wide[s] = counts[s];
+    }
+    return build(wide);
+  }
+
+  // As `build(int[])`, for counts beyond the range of an int.
+  //
+  // Uses the two-queue construction: leaves sorted by count, and decision
+  // nodes, which are created in order of weight, so the two smallest
+  // trees are always at the head of one queue or the other. As in the
+  // original object-graph version, the first tree taken becomes the `1`
+  // child and the second the `0` child.
+  public static CodeTree build(long[] counts) {
+    long[] leaves = new long[256];
+    int used = 0;
+    for (int s = 0; s < 256; s++) {
+      if (counts[s] > MAX_COUNT) {
+        throw new IllegalArgumentException(
+          String.format("Count out of range: %d", counts[s]));
+      }
+      if (counts[s] > 0) {
+        leaves[used++] = (counts[s] << 8) | s;
+      }
+    }
+    if (used == 0) {
+      throw new IllegalArgumentException("No symbols to build a tree for");
+    }
+    Arrays.sort(leaves, 0, used);
+    CodeTree tree = new CodeTree();
+    if (used == 1) {
+      tree.root = leaf(leaves[0]);
+      tree.assignCodes();
+      return tree;
+    }
+    long[] weights = new long[used - 1];
+    int nextLeaf = 0;
+    int nextNode = 0;
+    for (int n = 0; n < used - 1; n++) {
+      long weight = 0;
+      for (int k = 0; k < 2; k++) {
+        short taken;
+        if (nextLeaf < used
+            && (nextNode == n || (leaves[nextLeaf] >>> 8) <= weights[nextNode])) {
+          taken = leaf(leaves[nextLeaf]);
+          weight += leaves[nextLeaf++] >>> 8;
+        } else {
+          taken = (short) nextNode;
+          weight += weights[nextNode++];
+        }
+        if (k == 0) {
+          tree.child1[n] = taken;
+        } else {
+          tree.child0[n] = taken;
+        }
+      }
+      weights[n] = weight;
+    }
+    tree.decisionNodes = used - 1;
+    tree.root = (short) (used - 2);
+    tree.assignCodes();
+    return tree;
+  }
+
+  // Reads a tree in the format `write` produces: a preorder walk with a 0
+  // bit for each decision node and a 1 bit plus the byte for each leaf.
+  public static CodeTree read(BitInputStream in) throws IOException {
+    CodeTree tree = new CodeTree();
+    if (readBit(in) == 1) {
+      tree.root = leaf(in.readByte());
+      tree.assignCodes();
+      return tree;
+    }
+    tree.root = 0;
+    tree.decisionNodes = 1;
+    // Each stacked node's code length, which must stay below 64 for its
+    // children's codes to fit in a long.
+    int[] stackNode = new int[MAX_DECISION_NODES + 1];
+    boolean[] stackRight = new boolean[MAX_DECISION_NODES + 1];
+    int[] stackLength = new int[MAX_DECISION_NODES + 1];
+    int depth = 1;
+    while (depth > 0) {
+      short child;
+      if (readBit(in) == 1) {
+        child = leaf(in.readByte());
+      } else {
+        if (tree.decisionNodes == MAX_DECISION_NODES) {
+          throw new IOException("Corrupt code tree: too many nodes");
+        }
+        child = (short) tree.decisionNodes++;
+      }
+      int parent = stackNode[depth - 1];
+      int length = stackLength[depth - 1] + 1;
+      if (!stackRight[depth - 1]) {
+        tree.child0[parent] = child;
+        stackRight[depth - 1] = true;
+      } else {
+        tree.child1[parent] = child;
+        depth--;
+      }
+      if (child >= 0) {
+        if (length == 64) {
+          throw new IOException("Corrupt code tree: too deep");
+        }
+        stackNode[depth] = child;
+        stackRight[depth] = false;
+        stackLength[depth] = length;
+        depth++;
+      }
+    }
+    tree.assignCodes();
+    return tree;
+  }
+
+  private static int readBit(BitInputStream in) throws IOException {
+    int bit = in.readBit();
+    if (bit < 0) {
+      throw new EOFException("Truncated code tree");
+    }
+    return bit;
+  }
+
+  // Writes the tree as `read` expects it and returns the node bits (one
+  // character per node, leaf bytes omitted) for debugging output.
+  public String write(BitOutputStream out) throws IOException {
+    StringBuilder trace = new StringBuilder(2 * decisionNodes + 1);
+    short[] stack = new short[MAX_DECISION_NODES + 2];
+    int depth = 0;
+    stack[depth++] = root;
+    while (depth > 0) {
+      short node = stack[--depth];
+      if (isLeaf(node)) {
+        trace.append('1');
+        out.writeBit(1);
+        out.writeByte(symbol(node));
+      } else {
+        trace.append('0');
+        out.writeBit(0);
+        stack[depth++] = child1[node];
+        stack[depth++] = child0[node];
+      }
+    }
+    return trace.toString();
+  }
+
+  // Fills in `codes` and `lengths` with a depth-first walk. A tree that is
+  // a single leaf gives its symbol the empty code.
+  private void assignCodes() {
+    short[] stackNode = new short[MAX_DECISION_NODES + 2];
+    long[] stackCode = new long[stackNode.length];
+    int[] stackLength = new int[stackNode.length];
+    int depth = 0;
+    stackNode[depth++] = root;
+    while (depth > 0) {
+      depth--;
+      short node = stackNode[depth];
+      long code = stackCode[depth];
+      int length = stackLength[depth];
+      if (length > 64) {
+        // Built trees stay far shallower, and `read` rejects deeper ones.
+        throw new IllegalStateException("Code longer than 64 bits");
+      }
+      if (isLeaf(node)) {
+        codes[symbol(node)] = code;
+        lengths[symbol(node)] = length;
+        continue;
+      }
+      stackNode[depth] = child1[node];
+      stackCode[depth] = (code << 1) | 1;
+      stackLength[depth] = length + 1;
+      depth++;
+      stackNode[depth] = child0[node];
+      stackCode[depth] = code << 1;
+      stackLength[depth] = length + 1;
+      depth++;
+    }
+  }
+
+  public int root() {
+    return root;
+  }
+
+  // The child of decision node `node` on the given bit.
+  public int child(int node, int bit) {
+    return (bit == 0) ? child0[node] : child1[node];
+  }
+
+  public static boolean isLeaf(int node) {
+    return node < 0;
+  }
+
+  // The byte value, 0-255, held by leaf `node`.
+  public static int symbol(int node) {
+    return ~node;
+  }
+
+  // The leaf index for the byte in the low 8 bits of `value`.
+  private static short leaf(long value) {
+    return (short) ~(value & 0xFF);
+  }
+
+  public int decisionNodes() {
+    return decisionNodes;
+  }
+
+  // Code of the unsigned byte `symbol`, right-aligned in `length(symbol)`
+  // bits.
+  public long code(int symbol) {
+    return codes[symbol];
+  }
+
+  // Code length of `symbol` in bits; 0 if it has no code, or if it is the
+  // only symbol in the tree.
+  public int length(int symbol) {
+    return lengths[symbol];
+  }
+
+  // The code of `symbol` as a string of '0' and '1' characters.
+  public String codeString(int symbol) {
+    StringBuilder bits = new StringBuilder(lengths[symbol]);
+    for (int i = lengths[symbol] - 1; i >= 0; i--) {
+      bits.append((char) ('0' + ((codes[symbol] >>> i) & 1)));
+    }
+    return bits.toString();
+  }
+
+  // Whether `symbol` appears as a leaf.
+  public boolean contains(int symbol) {
+    return lengths[symbol] > 0 || root == leaf(symbol);
+  }
+}
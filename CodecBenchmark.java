@@ -0,0 +1,107 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Measures compression ratio and in-memory throughput of FramedCodec over
+// a set of files, once per configuration, so that pipeline stages and
+// options can be compared on real data.
+//
+// Usage: java CodecBenchmark [--iterations=N] FILE...
+public class CodecBenchmark {
+  private static final int WARMUP_ITERATIONS = 3;
+
+  // Configurations compared on every run, by name.
+  static Map<String, CodecOptions> configurations() {
+    Map<String, CodecOptions> configs = new LinkedHashMap<String, CodecOptions>();
+    configs.put("huffman", new CodecOptions());
+    configs.put("huffman level 1", new CodecOptions().level(1));
+    configs.put("huffman level 9", new CodecOptions().level(9));
+    configs.put("rle+huffman",
+                new CodecOptions().addTransform(new RunLengthTransform()));
+    configs.put("bwt+mtf+huffman",
+                new CodecOptions().addTransform(new BurrowsWheelerTransform())
+                                  .addTransform(new MoveToFrontTransform()));
+    configs.put("huffman x4 streams", new CodecOptions().streams(4));
+    configs.put("order-1 huffman", new CodecOptions().contextOrder(1));
+    configs.put("lz level 1", new CodecOptions().lzLevel(1));
+    configs.put("lz level 6", new CodecOptions().lzLevel(6));
+    configs.put("lz level 9", new CodecOptions().lzLevel(9));
+    configs.put("bwt x4 threads",
+                new CodecOptions().addTransform(new BurrowsWheelerTransform())
+                                  .addTransform(new MoveToFrontTransform())
+                                  .threads(4));
+    return configs;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int iterations = 10;
+    List<Path> files = new ArrayList<Path>();
+    for (String arg : args) {
+      if (arg.startsWith("--iterations=")) {
+        iterations = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+      } else {
+        files.add(Paths.get(arg));
+      }
+    }
+    if (files.isEmpty()) {
+      System.err.println("Usage: CodecBenchmark [--iterations=N] FILE...");
+      System.exit(1);
+    }
+    System.out.println(String.format("%-24s %-16s %12s %8s %12s %12s",
+                                     "file", "config", "size", "ratio",
+                                     "enc MB/s", "dec MB/s"));
+    for (Path file : files) {
+      byte[] data = Files.readAllBytes(file);
+      for (Map.Entry<String, CodecOptions> config : configurations().entrySet()) {
+        run(file.getFileName().toString(), config.getKey(),
+            new FramedCodec(config.getValue()), data, iterations);
+      }
+    }
+    System.out.println(String.format("buffer pool: %s", BufferPool.shared()));
+    System.out.println(String.format("decode tables: %s", DecodeTableCache.shared()));
+  }
+
+  private static void run(String name, String config, FramedCodec codec,
+                          byte[] data, int iterations) throws IOException {
+    byte[] compressed = compress(codec, data);
+    byte[] restored = decompress(codec, compressed);
+    if (!Arrays.equals(data, restored)) {
+      throw new IOException(String.format("%s: %s round trip failed", name, config));
+    }
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      decompress(codec, compress(codec, data));
+    }
+
+    long encodeNanos = 0;
+    long decodeNanos = 0;
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      compressed = compress(codec, data);
+      long middle = System.nanoTime();
+      decompress(codec, compressed);
+      decodeNanos += System.nanoTime() - middle;
+      encodeNanos += middle - start;
+    }
+    System.out.println(String.format("%-24s %-16s %12d %8.3f %12.2f %12.2f",
+                                     name, config, compressed.length,
+                                     (double) compressed.length / Math.max(1, data.length),
+                                     rate(data.length, iterations, encodeNanos),
+                                     rate(data.length, iterations, decodeNanos)));
+  }
+
+  private static double rate(long bytes, int iterations, long nanos) {
+    return (nanos == 0) ? 0.0 : bytes * iterations / (1024.0 * 1024.0) / (nanos / 1e9);
+  }
+
+  static byte[] compress(FramedCodec codec, byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+    codec.compress(new ByteArrayInputStream(data), out);
+    return out.toByteArray();
+  }
+
+  static byte[] decompress(FramedCodec codec, byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2 + 64);
+    codec.decompress(new ByteArrayInputStream(data), out);
+    return out.toByteArray();
+  }
+}
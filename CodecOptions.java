@@ -0,0 +1,323 @@
+import java.util.*;
+
+// Settings for the block-framed format written by FramedCodec.
+//
+// Uses the same fluent style as Option: each setter returns `this` so that
+// a configuration reads as a single expression.
+public class CodecOptions {
+  public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+  public static final double DEFAULT_MIN_GAIN = 0.02;
+  // Keeps every code within 32 bits: a Huffman tree of depth 33 needs a
+  // total count of at least fib(35) > 9M symbols.
+  public static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;
+  public static final int MIN_LEVEL = 1;
+  public static final int MAX_LEVEL = 9;
+  public static final int DEFAULT_LEVEL = 5;
+  public static final int DEFAULT_IO_BUFFERS = 3;
+  public static final int DEFAULT_IO_BUFFER_SIZE = 1024 * 1024;
+
+  private boolean checksums = false;
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+  private double minGain = DEFAULT_MIN_GAIN;
+  private final List<Transform> transforms = new ArrayList<>();
+  private int threads = 1;
+  private int lzLevel = 0;
+  private int symbolBits = 8;
+  private int contextOrder = 0;
+  private int streams = 1;
+  private int level = DEFAULT_LEVEL;
+  private int ioBuffers = DEFAULT_IO_BUFFERS;
+  private int ioBufferSize = DEFAULT_IO_BUFFER_SIZE;
+  private BufferPool bufferPool = BufferPool.shared();
+  private DecodeTableCache decodeTableCache = DecodeTableCache.shared();
+
+  // Adds a CRC32C of the uncompressed data after every block and after
+  // the whole file.
+  public CodecOptions checksums(boolean enabled) {
+    this.checksums = enabled;
+    return this;
+  }
+
+  // Number of uncompressed bytes coded with one tree.
+  public CodecOptions blockSize(int size) {
+    if (size < 1 || size > MAX_BLOCK_SIZE) {
+      throw new IllegalArgumentException(
+        String.format("Block size out of range: %d", size));
+    }
+    this.blockSize = size;
+    return this;
+  }
+
+  // Fraction of a block's size that Huffman coding must save, tree
+  // included, for the block to be coded at all. Blocks that would save less
+  // are stored raw.
+  public CodecOptions minGain(double fraction) {
+    if (fraction < 0.0 || fraction >= 1.0) {
+      throw new IllegalArgumentException(
+        String.format("Minimum gain out of range: %s", fraction));
+    }
+    this.minGain = fraction;
+    return this;
+  }
+
+  // Appends a pre-processing stage to the pipeline run on every block
+  // before frequency counting.
+  public CodecOptions addTransform(Transform stage) {
+    transforms.add(stage);
+    return this;
+  }
+
+  // Number of worker threads coding blocks in parallel during
+  // compression. Output is identical whatever the thread count.
+  public CodecOptions threads(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException(
+        String.format("Thread count must be positive: %d", count));
+    }
+    this.threads = count;
+    return this;
+  }
+
+  // Codes blocks with LzCodec at the given match-search level (1 fastest,
+  // 9 smallest output), or with plain Huffman coding when 0.
+  public CodecOptions lzLevel(int level) {
+    if (level != 0 && (level < LzCodec.MIN_LEVEL || level > LzCodec.MAX_LEVEL)) {
+      throw new IllegalArgumentException(
+        String.format("LZ level out of range: %d", level));
+    }
+    this.lzLevel = level;
+    return this;
+  }
+
+  // Width of the symbols Huffman blocks may use: 8 codes bytes, 16 also
+  // considers coding big-endian byte pairs (for 16-bit samples) and keeps
+  // whichever is smaller per block.
+  public CodecOptions symbolBits(int bits) {
+    if (bits != 8 && bits != 16) {
+      throw new IllegalArgumentException(
+        String.format("Symbol width must be 8 or 16: %d", bits));
+    }
+    this.symbolBits = bits;
+    return this;
+  }
+
+  // Context order of Huffman blocks: 0 codes every byte with one table, 1
+  // also considers ContextCoder's per-previous-byte tables and keeps
+  // whichever is smaller per block.
+  public CodecOptions contextOrder(int order) {
+    if (order != 0 && order != 1) {
+      throw new IllegalArgumentException(
+        String.format("Context order must be 0 or 1: %d", order));
+    }
+    this.contextOrder = order;
+    return this;
+  }
+
+  // Number of interleaved code streams in order-0 byte blocks: 1, or 4 to
+  // let the decoder work on four independent streams at once.
+  public CodecOptions streams(int count) {
+    if (count != 1 && count != 4) {
+      throw new IllegalArgumentException(
+        String.format("Stream count must be 1 or 4: %d", count));
+    }
+    this.streams = count;
+    return this;
+  }
+
+  // How hard the encoder works on each block's code, from 1 (fastest) to 9
+  // (smallest); the format and decoder are the same at every level. At all
+  // levels a block reuses the previous block's code, without a tree, when
+  // that comes out no larger than a fresh code.
+  //
+  //   1-3  build codes from a sample of each large block (1/8, 1/4, 1/2 of
+  //        it) and keep the previous block's code, without building a
+  //        fresh one, while it stays within 5%, 3% or 2% of the entropy
+  //        bound
+  //   4    exact counts; keeps the previous code within 1%
+  //   5    exact counts and an exact comparison (the default)
+  //   6-9  also split blocks where separate codes for the parts save more
+  //        than the extra block header, searching 1 to 4 splits deep
+  public CodecOptions level(int level) {
+    if (level < MIN_LEVEL || level > MAX_LEVEL) {
+      throw new IllegalArgumentException(
+        String.format("Level out of range: %d", level));
+    }
+    this.level = level;
+    return this;
+  }
+
+  // Number of buffers that file input is read ahead into, and that file
+  // output is written behind from, each on its own thread: 2 for double
+  // buffering, 3 (the default) for triple. 1 reads and writes on the
+  // coding thread instead.
+  public CodecOptions ioBuffers(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException(
+        String.format("I/O buffer count must be positive: %d", count));
+    }
+    this.ioBuffers = count;
+    return this;
+  }
+
+  // Size in bytes of each read-ahead and write-behind buffer.
+  public CodecOptions ioBufferSize(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException(
+        String.format("I/O buffer size must be positive: %d", size));
+    }
+    this.ioBufferSize = size;
+    return this;
+  }
+
+  // Pool that block, payload and output buffers are taken from; the
+  // process-wide `BufferPool.shared()` unless set.
+  public CodecOptions bufferPool(BufferPool pool) {
+    if (pool == null) {
+      throw new IllegalArgumentException("Buffer pool must not be null");
+    }
+    this.bufferPool = pool;
+    return this;
+  }
+
+  // Cache that trees read while decompressing are looked up in; the
+  // process-wide `DecodeTableCache.shared()` unless set. A cache of 0 bytes
+  // turns caching off.
+  public CodecOptions decodeTableCache(DecodeTableCache cache) {
+    if (cache == null) {
+      throw new IllegalArgumentException("Decode table cache must not be null");
+    }
+    this.decodeTableCache = cache;
+    return this;
+  }
+
+  // A separate set of options with the same settings, sharing the same
+  // transform stages, buffer pool and decode table cache.
+  public CodecOptions copy() {
+    CodecOptions copy = new CodecOptions();
+    copy.checksums = checksums;
+    copy.blockSize = blockSize;
+    copy.minGain = minGain;
+    copy.transforms.addAll(transforms);
+    copy.threads = threads;
+    copy.lzLevel = lzLevel;
+    copy.symbolBits = symbolBits;
+    copy.contextOrder = contextOrder;
+    copy.streams = streams;
+    copy.level = level;
+    copy.ioBuffers = ioBuffers;
+    copy.ioBufferSize = ioBufferSize;
+    copy.bufferPool = bufferPool;
+    copy.decodeTableCache = decodeTableCache;
+    return copy;
+  }
+
+  public boolean hasChecksums() {
+    return checksums;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public double getMinGain() {
+    return minGain;
+  }
+
+  public List<Transform> getTransforms() {
+    return transforms;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getLzLevel() {
+    return lzLevel;
+  }
+
+  public int getSymbolBits() {
+    return symbolBits;
+  }
+
+  public int getContextOrder() {
+    return contextOrder;
+  }
+
+  public int getStreams() {
+    return streams;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  public int getIoBuffers() {
+    return ioBuffers;
+  }
+
+  public int getIoBufferSize() {
+    return ioBufferSize;
+  }
+
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  public DecodeTableCache getDecodeTableCache() {
+    return decodeTableCache;
+  }
+
+  // Removes the codec flags it recognizes from `args` and applies them,
+  // leaving positional arguments (file names) behind. Throws an
+  // IllegalArgumentException for an unrecognized `--` flag.
+  public static CodecOptions parse(List<String> args) {
+    CodecOptions options = new CodecOptions();
+    Iterator<String> it = args.iterator();
+    while (it.hasNext()) {
+      String arg = it.next();
+      if (!arg.startsWith("--")) {
+        continue;
+      }
+      String name = arg;
+      String value = null;
+      if (arg.contains("=")) {
+        name = arg.substring(0, arg.indexOf("="));
+        value = arg.substring(arg.indexOf("=") + 1);
+      }
+      if (name.equals("--checksum")) {
+        options.checksums(true);
+      } else if (name.equals("--rle")) {
+        options.addTransform(new RunLengthTransform());
+      } else if (name.equals("--bwt")) {
+        options.addTransform(new BurrowsWheelerTransform());
+        options.addTransform(new MoveToFrontTransform());
+      } else if (name.equals("--lz")) {
+        options.lzLevel((value == null) ? LzCodec.DEFAULT_LEVEL
+                                        : Integer.parseInt(value));
+      } else if (name.equals("--level") && value != null) {
+        options.level(Integer.parseInt(value));
+      } else if (name.equals("--io-buffers") && value != null) {
+        options.ioBuffers(Integer.parseInt(value));
+      } else if (name.equals("--io-buffer-size") && value != null) {
+        options.ioBufferSize(Integer.parseInt(value));
+      } else if (name.equals("--streams") && value != null) {
+        options.streams(Integer.parseInt(value));
+      } else if (name.equals("--order1")) {
+        options.contextOrder(1);
+      } else if (name.equals("--symbols") && value != null) {
+        options.symbolBits(Integer.parseInt(value));
+      } else if (name.equals("--threads") && value != null) {
+        options.threads(Integer.parseInt(value));
+      } else if (name.equals("--block-size") && value != null) {
+        options.blockSize(Integer.parseInt(value));
+      } else if (name.equals("--min-gain") && value != null) {
+        options.minGain(Double.parseDouble(value));
+      } else {
+        throw new IllegalArgumentException(
+          String.format("Invalid flag syntax: \"%s\"", arg));
+      }
+      it.remove();
+    }
+    return options;
+  }
+}
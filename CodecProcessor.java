@@ -0,0 +1,346 @@
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Flow.Processor adapters that put FramedCodec inline in a reactive
+// pipeline: buffers of raw data in and buffers of the framed format out for
+// `compressor`, the other way round for `decompressor`, without ever
+// holding the whole stream in memory.
+//
+// The codec runs as a single task on the given executor, reading incoming
+// buffers through an InputStream and writing through an OutputStream, so it
+// codes block by block as input arrives, just as
+// `compress(InputStream, OutputStream)` does. Backpressure holds both ways:
+// upstream is asked for at most `prefetch` buffers more than the codec has
+// used up, and output goes out in buffers of up to `chunkSize` bytes only
+// against downstream demand. With no demand the task waits, and so stops
+// asking upstream for more. The task blocks while it waits, so the executor
+// should not be one whose threads are in short supply; by default each
+// processor starts a thread of its own.
+//
+// A processor serves one stream and one subscriber. Incoming buffers are
+// read from their position to their limit, without moving either, and must
+// not be changed after `onNext`; outgoing buffers are fresh. Cancelling
+// downstream cancels upstream; an upstream error, or a codec failure such
+// as a corrupt stream, reaches downstream as `onError`.
+public class CodecProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+  public static final int DEFAULT_PREFETCH = 4;
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  // Queued after the last incoming buffer, or to wake the task on cancel
+  // or on a non-positive request.
+  private static final Object END = new Object();
+  private static final Object CANCELLED = new Object();
+  private static final Object BAD_REQUEST = new Object();
+
+  private final FramedCodec codec;
+  private final boolean compressing;
+  private final Executor executor;
+  private int prefetch = DEFAULT_PREFETCH;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+  // Incoming buffers, then END, or the upstream error.
+  private final BlockingQueue<Object> incoming = new LinkedBlockingQueue<Object>();
+  private volatile Flow.Subscription upstream;
+  private volatile Throwable upstreamError;
+
+  // Guarded by `this`.
+  private Flow.Subscriber<? super ByteBuffer> downstream;
+  private long demand;
+  private boolean cancelled;
+  private IllegalArgumentException requestError;
+
+  private CodecProcessor(FramedCodec codec, boolean compressing,
+                         Executor executor) {
+    this.codec = codec;
+    this.compressing = compressing;
+    this.executor = executor;
+  }
+
+  // Compresses raw data into the framed format, on `executor`.
+  public static CodecProcessor compressor(CodecOptions options,
+                                          Executor executor) {
+    return new CodecProcessor(new FramedCodec(options), true, executor);
+  }
+
+  public static CodecProcessor compressor(CodecOptions options) {
+    return compressor(options, CodecProcessor::startThread);
+  }
+
+  // Decompresses one framed stream, on `executor`.
+  public static CodecProcessor decompressor(CodecOptions options,
+                                            Executor executor) {
+    return new CodecProcessor(new FramedCodec(options), false, executor);
+  }
+
+  public static CodecProcessor decompressor(CodecOptions options) {
+    return decompressor(options, CodecProcessor::startThread);
+  }
+
+  private static void startThread(Runnable task) {
+    Thread thread = new Thread(task, "codec-processor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // Number of incoming buffers to ask for ahead of the codec. Only takes
+  // effect if set before `onSubscribe`.
+  public CodecProcessor prefetch(int buffers) {
+    if (buffers < 1) {
+      throw new IllegalArgumentException(
+        String.format("Prefetch must be positive: %d", buffers));
+    }
+    this.prefetch = buffers;
+    return this;
+  }
+
+  // Largest outgoing buffer. Only takes effect if set before `subscribe`.
+  public CodecProcessor chunkSize(int bytes) {
+    if (bytes < 1) {
+      throw new IllegalArgumentException(
+        String.format("Chunk size must be positive: %d", bytes));
+    }
+    this.chunkSize = bytes;
+    return this;
+  }
+
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (upstream != null) {
+      subscription.cancel();
+      return;
+    }
+    upstream = subscription;
+    subscription.request(prefetch);
+  }
+
+  public void onNext(ByteBuffer item) {
+    incoming.add(Objects.requireNonNull(item));
+  }
+
+  public void onError(Throwable error) {
+    incoming.add(Objects.requireNonNull(error));
+  }
+
+  public void onComplete() {
+    incoming.add(END);
+  }
+
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    Objects.requireNonNull(subscriber);
+    boolean first;
+    synchronized (this) {
+      first = (downstream == null);
+      if (first) {
+        downstream = subscriber;
+      }
+    }
+    if (!first) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        public void request(long n) {
+        }
+
+        public void cancel() {
+        }
+      });
+      subscriber.onError(
+        new IllegalStateException("A codec processor takes one subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new Output());
+    try {
+      executor.execute(this::run);
+    } catch (RejectedExecutionException e) {
+      cancelUpstream();
+      subscriber.onError(e);
+    }
+  }
+
+  // Body of the codec task; sends every downstream signal after
+  // `onSubscribe`, so they are serial.
+  private void run() {
+    Exception failure = null;
+    IncomingStream in = new IncomingStream();
+    ChunkOutputStream out = new ChunkOutputStream();
+    try {
+      if (compressing) {
+        codec.compress(in, out);
+      } else {
+        codec.decompress(in, out);
+      }
+      out.flush();
+    } catch (IOException | RuntimeException e) {
+      failure = e;
+    }
+    if (!in.ended) {
+      // Failed, cancelled, or the framed stream ended before the input did.
+      cancelUpstream();
+    }
+    Throwable error = failure;
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      if (requestError != null) {
+        error = requestError;
+      } else if (failure != null && upstreamError != null) {
+        error = upstreamError;
+      }
+    }
+    if (error != null) {
+      downstream.onError(error);
+    } else {
+      downstream.onComplete();
+    }
+  }
+
+  private void cancelUpstream() {
+    Flow.Subscription subscription = upstream;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+  }
+
+  // Waits until the subscriber wants another buffer and counts it off.
+  private synchronized void awaitDemand() throws IOException {
+    try {
+      while (demand == 0 && !cancelled && requestError == null) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if (cancelled || requestError != null) {
+      throw new IOException("Subscription ended");
+    }
+    if (demand != Long.MAX_VALUE) {
+      demand--;
+    }
+  }
+
+  // The downstream subscription.
+  private final class Output implements Flow.Subscription {
+    public void request(long n) {
+      synchronized (CodecProcessor.this) {
+        if (n > 0) {
+          demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+          CodecProcessor.this.notifyAll();
+          return;
+        }
+        if (requestError != null) {
+          return;
+        }
+        requestError = new IllegalArgumentException(
+          String.format("Request must be positive: %d", n));
+        CodecProcessor.this.notifyAll();
+      }
+      // The task may be waiting for input rather than demand.
+      incoming.add(BAD_REQUEST);
+    }
+
+    public void cancel() {
+      synchronized (CodecProcessor.this) {
+        if (cancelled) {
+          return;
+        }
+        cancelled = true;
+        CodecProcessor.this.notifyAll();
+      }
+      cancelUpstream();
+      incoming.add(CANCELLED);
+    }
+  }
+
+  // The incoming buffers as a stream, asking upstream for one more each
+  // time one is used up.
+  private final class IncomingStream extends InputStream {
+    private ByteBuffer current;
+    boolean ended;
+
+    public int read() throws IOException {
+      return fill() ? current.get() & 0xFF : -1;
+    }
+
+    public int read(byte[] b, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int n = Math.min(length, current.remaining());
+      current.get(b, offset, n);
+      return n;
+    }
+
+    // Makes `current` a buffer with bytes left, or returns false at the end.
+    private boolean fill() throws IOException {
+      while (current == null || !current.hasRemaining()) {
+        if (ended) {
+          return false;
+        }
+        if (current != null) {
+          current = null;
+          upstream.request(1);
+        }
+        Object item;
+        try {
+          item = incoming.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        if (item == END) {
+          ended = true;
+          return false;
+        } else if (item == CANCELLED || item == BAD_REQUEST) {
+          throw new IOException("Subscription ended");
+        } else if (item instanceof Throwable) {
+          ended = true;
+          upstreamError = (Throwable) item;
+          throw new IOException("Upstream failed", upstreamError);
+        }
+        current = ((ByteBuffer) item).duplicate();
+      }
+      return true;
+    }
+  }
+
+  // Cuts the codec's output into buffers of up to `chunkSize` bytes and
+  // sends each downstream once it is asked for. `flush` sends a partial one.
+  private final class ChunkOutputStream extends OutputStream {
+    private byte[] chunk = new byte[chunkSize];
+    private int size;
+
+    public void write(int b) throws IOException {
+      if (size == chunk.length) {
+        flush();
+      }
+      chunk[size++] = (byte) b;
+    }
+
+    public void write(byte[] b, int offset, int length) throws IOException {
+      while (length > 0) {
+        if (size == chunk.length) {
+          flush();
+        }
+        int n = Math.min(length, chunk.length - size);
+        System.arraycopy(b, offset, chunk, size, n);
+        size += n;
+        offset += n;
+        length -= n;
+      }
+    }
+
+    public void flush() throws IOException {
+      if (size == 0) {
+        return;
+      }
+      awaitDemand();
+      downstream.onNext(ByteBuffer.wrap(chunk, 0, size));
+      chunk = new byte[chunkSize];
+      size = 0;
+    }
+  }
+}
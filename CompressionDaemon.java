@@ -0,0 +1,459 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Serves framed-format compress and decompress requests over a Unix
+// domain socket, so that shell pipelines pay for JVM startup and JIT
+// warm-up once rather than once per file. DaemonClient is the other end.
+//
+// Each connection starts with the client sending int MAGIC and byte
+// VERSION, followed by any number of requests:
+//   byte op (OP_COMPRESS or OP_DECOMPRESS), UTF codec flags as given on
+//   the command line, space separated, long input length, the input
+// The daemon answers each request, in order, with:
+//   the output as chunks (int length, then the bytes), an int 0, byte
+//   STATUS_OK or STATUS_ERROR, and for an error a UTF message
+// The status comes last so that output can be streamed out as it is
+// produced; a client must discard the output of a failed request.
+//
+// Every connection is served on its own virtual thread where the JDK has
+// them. Requests of up to SMALL_REQUEST bytes that a client has already
+// pipelined are read together as a batch of up to MAX_BATCH, coded in
+// parallel on one platform thread per CPU, and answered with a single
+// flush. Larger requests are streamed through the codec one at a time.
+public class CompressionDaemon implements Closeable {
+  public static final int MAGIC = 0x48554644; // "HUFD"
+  public static final int VERSION = 1;
+  public static final int OP_COMPRESS = 1;
+  public static final int OP_DECOMPRESS = 2;
+  public static final int STATUS_OK = 0;
+  public static final int STATUS_ERROR = 1;
+  public static final int SMALL_REQUEST = 1024 * 1024;
+  public static final int MAX_BATCH = 64;
+  public static final int CHUNK_SIZE = 64 * 1024;
+
+  private final Path socket;
+  private final ExecutorService connections;
+  private final ExecutorService coders;
+  private volatile ServerSocketChannel server;
+
+  public CompressionDaemon(Path socket) {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    this.socket = socket;
+    this.connections = BatchEncoder.newWorkerExecutor(4 * cpus);
+    this.coders = Executors.newFixedThreadPool(cpus, task -> {
+      Thread thread = new Thread(task, "daemon-coder");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // The socket both ends use unless told otherwise, in a directory of the
+  // user's own so that other local users can't connect to it.
+  public static Path defaultSocket() {
+    return Paths.get(System.getProperty("java.io.tmpdir"),
+                     "huffman-" + System.getProperty("user.name"), "huffman.sock");
+  }
+
+  // Binds the socket, replacing a stale one left by an earlier daemon, and
+  // accepts connections until `close` is called. Fails if another daemon
+  // is still serving on the socket.
+  public void serve() throws IOException {
+    if (socket.equals(defaultSocket())) {
+      privateDirectory(socket.getParent());
+    }
+    claimSocket();
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(socket));
+    try {
+      ownerOnly(socket, "rw-------");
+    } catch (IOException e) {
+      server.close();
+      Files.deleteIfExists(socket);
+      throw e;
+    }
+    try {
+      while (true) {
+        SocketChannel channel;
+        try {
+          channel = server.accept();
+        } catch (ClosedChannelException e) {
+          return;
+        }
+        connections.execute(() -> serve(channel));
+      }
+    } finally {
+      Files.deleteIfExists(socket);
+    }
+  }
+
+  // Removes a socket file nobody is listening on any more.
+  private void claimSocket() throws IOException {
+    if (!Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    try {
+      SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+    } catch (ConnectException e) {
+      // Stale: left behind by a daemon that is gone.
+      Files.delete(socket);
+      return;
+    }
+    throw new IOException(
+      String.format("A daemon is already serving on %s", socket));
+  }
+
+  // Creates `dir` readable by its owner alone, or checks that an existing
+  // one is ours and closed to everyone else.
+  private static void privateDirectory(Path dir) throws IOException {
+    if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+      Files.createDirectories(dir);
+      ownerOnly(dir, "rwx------");
+      return;
+    }
+    if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+      throw new IOException(String.format("Not a directory: %s", dir));
+    }
+    PosixFileAttributeView view = Files.getFileAttributeView(
+      dir, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+    if (view == null) {
+      return;
+    }
+    PosixFileAttributes attributes = view.readAttributes();
+    if (!attributes.owner().getName().equals(System.getProperty("user.name"))
+        || !PosixFilePermissions.toString(attributes.permissions()).endsWith("------")) {
+      throw new IOException(
+        String.format("%s must belong to the current user and be closed to others",
+                      dir));
+    }
+  }
+
+  // Restricts `path` to the given permissions where the file system has
+  // POSIX permissions at all.
+  private static void ownerOnly(Path path, String permissions)
+      throws IOException {
+    try {
+      Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+    } catch (UnsupportedOperationException e) {
+      /* no POSIX permissions to set */
+    }
+  }
+
+  public void close() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+    connections.shutdownNow();
+    coders.shutdownNow();
+  }
+
+  // Serves one connection until the client closes it.
+  private void serve(SocketChannel channel) {
+    try (channel) {
+      DataInputStream in = new DataInputStream(
+        new BufferedInputStream(inputOf(channel), CHUNK_SIZE));
+      DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(outputOf(channel), CHUNK_SIZE));
+      if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+        return;
+      }
+      Request next = Request.read(in);
+      while (next != null) {
+        if (next.length > SMALL_REQUEST) {
+          stream(next, in, out);
+          next = Request.read(in);
+          continue;
+        }
+        List<Future<Response>> batch = new ArrayList<Future<Response>>();
+        while (next != null && next.length <= SMALL_REQUEST
+               && batch.size() < MAX_BATCH) {
+          byte[] input = new byte[(int) next.length];
+          in.readFully(input);
+          Request request = next;
+          batch.add(coders.submit(() -> code(request, input)));
+          // Only requests already sent join the batch; waiting for more
+          // would hold up the answers to these.
+          next = (in.available() > 0) ? Request.read(in) : null;
+        }
+        for (Future<Response> response : batch) {
+          await(response).writeTo(out);
+        }
+        out.flush();
+        if (next == null) {
+          next = Request.read(in);
+        }
+      }
+    } catch (IOException e) {
+      /* the client went away; nothing to answer */
+    }
+  }
+
+  // Codes a small request in memory.
+  private static Response code(Request request, byte[] input) {
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      FramedCodec codec = request.codec();
+      if (request.op == OP_COMPRESS) {
+        codec.compress(new ByteArrayInputStream(input), output);
+      } else {
+        codec.decompress(new ByteArrayInputStream(input), output);
+      }
+      return new Response(output, null);
+    } catch (IOException | RuntimeException e) {
+      return new Response(null, describe(e));
+    }
+  }
+
+  // Codes a large request straight from the connection to the connection.
+  private static void stream(Request request, DataInputStream in,
+                             DataOutputStream out) throws IOException {
+    BoundedInputStream input = new BoundedInputStream(in, request.length);
+    ChunkedOutputStream output = new ChunkedOutputStream(out);
+    String error = null;
+    try {
+      FramedCodec codec = request.codec();
+      if (request.op == OP_COMPRESS) {
+        codec.compress(input, output);
+      } else {
+        codec.decompress(input, output);
+      }
+      output.flush();
+    } catch (IOException | RuntimeException e) {
+      error = describe(e);
+    }
+    input.skipRest();
+    output.finish(error);
+    out.flush();
+  }
+
+  private static String describe(Exception e) {
+    return (e.getMessage() != null) ? e.getMessage() : e.toString();
+  }
+
+  private static Response await(Future<Response> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      return new Response(null, e.getCause().toString());
+    }
+  }
+
+  private static final class Request {
+    final int op;
+    final String flags;
+    final long length;
+
+    Request(int op, String flags, long length) {
+      this.op = op;
+      this.flags = flags;
+      this.length = length;
+    }
+
+    // Reads a request header, or returns null at the end of the stream.
+    static Request read(DataInputStream in) throws IOException {
+      int op = in.read();
+      if (op < 0) {
+        return null;
+      }
+      String flags = in.readUTF();
+      long length = in.readLong();
+      if (length < 0) {
+        throw new IOException(String.format("Bad request length: %d", length));
+      }
+      return new Request(op, flags, length);
+    }
+
+    // A codec configured by the request's flags. Throws an
+    // IllegalArgumentException for an unknown op or flag.
+    FramedCodec codec() {
+      if (op != OP_COMPRESS && op != OP_DECOMPRESS) {
+        throw new IllegalArgumentException(
+          String.format("Unknown operation %d", op));
+      }
+      List<String> args = new ArrayList<String>();
+      for (String flag : flags.trim().split("\\s+")) {
+        if (!flag.isEmpty()) {
+          args.add(flag);
+        }
+      }
+      CodecOptions options = CodecOptions.parse(args);
+      if (!args.isEmpty()) {
+        throw new IllegalArgumentException(
+          String.format("Unexpected argument: \"%s\"", args.get(0)));
+      }
+      return new FramedCodec(options);
+    }
+  }
+
+  // The answer to a small request: its output, or why there is none.
+  private static final class Response {
+    final ByteArrayOutputStream output;
+    final String error;
+
+    Response(ByteArrayOutputStream output, String error) {
+      this.output = output;
+      this.error = error;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+      if (output != null) {
+        output.writeTo(chunked);
+      }
+      chunked.finish(error);
+    }
+  }
+
+  private static void writeStatus(DataOutputStream out, String error)
+      throws IOException {
+    if (error == null) {
+      out.writeByte(STATUS_OK);
+    } else {
+      out.writeByte(STATUS_ERROR);
+      out.writeUTF(error);
+    }
+  }
+
+  // Streams over a connected channel. Unlike those from `Channels`, which
+  // take the channel's blocking lock, a read and a write on these can
+  // block at the same time, so one thread can send while another receives.
+  static InputStream inputOf(SocketChannel channel) {
+    return new InputStream() {
+      public int read() throws IOException {
+        byte[] one = new byte[1];
+        return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF;
+      }
+
+      public int read(byte[] b, int offset, int length) throws IOException {
+        return (length == 0) ? 0
+          : channel.read(ByteBuffer.wrap(b, offset, length));
+      }
+
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  static OutputStream outputOf(SocketChannel channel) {
+    return new OutputStream() {
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      public void write(byte[] b, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, offset, length);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  // The first `length` bytes of a stream, leaving the rest unread.
+  static final class BoundedInputStream extends InputStream {
+    private final InputStream in;
+    private long remaining;
+
+    BoundedInputStream(InputStream in, long length) {
+      this.in = in;
+      this.remaining = length;
+    }
+
+    public int read() throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Request truncated");
+      }
+      remaining--;
+      return b;
+    }
+
+    public int read(byte[] b, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (remaining == 0) {
+        return -1;
+      }
+      int n = in.read(b, offset, (int) Math.min(length, remaining));
+      if (n < 0) {
+        throw new EOFException("Request truncated");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    // Skips whatever the codec left unread, so the next request lines up.
+    void skipRest() throws IOException {
+      in.skipNBytes(remaining);
+      remaining = 0;
+    }
+  }
+
+  // Writes everything as length-prefixed chunks of up to CHUNK_SIZE bytes.
+  // `flush` only sends a partial chunk; the underlying stream is flushed
+  // once the request is answered.
+  static final class ChunkedOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int size;
+
+    ChunkedOutputStream(DataOutputStream out) {
+      this.out = out;
+    }
+
+    public void write(int b) throws IOException {
+      if (size == chunk.length) {
+        flush();
+      }
+      chunk[size++] = (byte) b;
+    }
+
+    public void write(byte[] b, int offset, int length) throws IOException {
+      while (length > 0) {
+        if (size == chunk.length) {
+          flush();
+        }
+        int n = Math.min(length, chunk.length - size);
+        System.arraycopy(b, offset, chunk, size, n);
+        size += n;
+        offset += n;
+        length -= n;
+      }
+    }
+
+    public void flush() throws IOException {
+      if (size > 0) {
+        out.writeInt(size);
+        out.write(chunk, 0, size);
+        size = 0;
+      }
+    }
+
+    // Ends the output and writes the status: OK if `error` is null. Output
+    // not yet sent is dropped after an error.
+    void finish(String error) throws IOException {
+      if (error == null) {
+        flush();
+      }
+      out.writeInt(0);
+      writeStatus(out, error);
+    }
+  }
+}
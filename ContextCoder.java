@@ -0,0 +1,191 @@
+import java.io.*;
+import java.util.*;
+
+// Order-1 context-modeled Huffman coding of one block: each byte is coded
+// with a table chosen by the byte before it.
+//
+// Keeping a tree per preceding byte would cost up to 256 trees per block, so
+// the 256 conditional histograms are clustered into at most MAX_TABLES
+// shared tables, and a context map records which table each preceding byte
+// uses. The number of tables is chosen per block to minimize the total
+// size, headers included.
+//
+// Payload: table count - 1 (4 bits), the context map (256 entries of
+// ceil(log2(tables)) bits, omitted for one table), the trees in
+// SymbolCoder form, then the code bits. The first byte's context is 0.
+public class ContextCoder {
+  public static final int MAX_TABLES = 16;
+  private static final int CLUSTER_ROUNDS = 4;
+
+  // A planned encoding: how contexts map to tables, and the tables.
+  public static class Plan {
+    final int tables;
+    final int[] contextMap;
+    final SymbolCoder[] coders;
+    final long bits;
+
+    Plan(int tables, int[] contextMap, SymbolCoder[] coders, long bits) {
+      this.tables = tables;
+      this.contextMap = contextMap;
+      this.coders = coders;
+      this.bits = bits;
+    }
+
+    // Exact payload size in bits.
+    public long bits() {
+      return bits;
+    }
+  }
+
+  // Chooses the cheapest clustering of `length` bytes of `data` at
+  // `offset`, trying 1, 2, 4, 8 and 16 tables.
+  public static Plan plan(byte[] data, int offset, int length) {
+    int[][] histograms = new int[256][256];
+    int prev = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int symbol = data[i] & 0xFF;
+      histograms[prev][symbol]++;
+      prev = symbol;
+    }
+    Plan best = null;
+    for (int tables = 1; tables <= MAX_TABLES; tables *= 2) {
+      Plan candidate = cluster(histograms, tables);
+      if (best == null || candidate.bits < best.bits) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  public static void encode(Plan plan, byte[] data, int offset, int length,
+                            BitWriter out) {
+    out.writeBits(plan.tables - 1, 4);
+    int mapBits = mapBits(plan.tables);
+    for (int c = 0; c < 256 && mapBits > 0; c++) {
+      out.writeBits(plan.contextMap[c], mapBits);
+    }
+    for (SymbolCoder coder : plan.coders) {
+      coder.writeTree(out);
+    }
+    int[] contextMap = plan.contextMap;
+    SymbolCoder[] coders = plan.coders;
+    int prev = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int symbol = data[i] & 0xFF;
+      coders[contextMap[prev]].encode(out, symbol);
+      prev = symbol;
+    }
+  }
+
+  public static void decode(byte[] payload, int payloadLength, byte[] out,
+                            int offset, int length, DecodeTableCache cache)
+      throws IOException {
+    BitReader in = new BitReader(payload, 0, payloadLength);
+    int tables = in.readBits(4) + 1;
+    int mapBits = mapBits(tables);
+    int[] contextMap = new int[256];
+    for (int c = 0; c < 256 && mapBits > 0; c++) {
+      contextMap[c] = in.readBits(mapBits);
+      if (contextMap[c] >= tables) {
+        throw new IOException("Corrupt context map");
+      }
+    }
+    SymbolCoder[] coders = new SymbolCoder[tables];
+    for (int t = 0; t < tables; t++) {
+      coders[t] = cache.readTree(in, 256);
+    }
+    int prev = 0;
+    for (int i = offset; i < offset + length; i++) {
+      prev = coders[contextMap[prev]].decode(in);
+      out[i] = (byte) prev;
+    }
+  }
+
+  // Groups the contexts into `tables` clusters, k-means style: seed with
+  // the busiest contexts, then alternate between assigning each context to
+  // the cluster whose code suits it best and rebuilding cluster codes.
+  private static Plan cluster(int[][] histograms, int tables) {
+    long[] totals = new long[256];
+    for (int c = 0; c < 256; c++) {
+      for (int s = 0; s < 256; s++) {
+        totals[c] += histograms[c][s];
+      }
+    }
+    Integer[] byTotal = new Integer[256];
+    for (int c = 0; c < 256; c++) {
+      byTotal[c] = c;
+    }
+    Arrays.sort(byTotal, (a, b) -> Long.compare(totals[b], totals[a]));
+
+    int[] contextMap = new int[256];
+    for (int t = 0; t < tables; t++) {
+      contextMap[byTotal[t]] = t;
+    }
+    double[][] costs = new double[tables][];
+    for (int t = 0; t < tables; t++) {
+      costs[t] = symbolCosts(histograms[byTotal[t]]);
+    }
+    for (int round = 0; round < CLUSTER_ROUNDS; round++) {
+      for (int c = 0; c < 256; c++) {
+        if (totals[c] == 0) {
+          contextMap[c] = 0;
+          continue;
+        }
+        double bestCost = Double.MAX_VALUE;
+        for (int t = 0; t < tables; t++) {
+          double cost = 0;
+          for (int s = 0; s < 256; s++) {
+            cost += histograms[c][s] * costs[t][s];
+          }
+          if (cost < bestCost) {
+            bestCost = cost;
+            contextMap[c] = t;
+          }
+        }
+      }
+      int[][] merged = merge(histograms, contextMap, tables);
+      for (int t = 0; t < tables; t++) {
+        costs[t] = symbolCosts(merged[t]);
+      }
+    }
+
+    int[][] merged = merge(histograms, contextMap, tables);
+    SymbolCoder[] coders = new SymbolCoder[tables];
+    long bits = 4 + (long) 256 * mapBits(tables);
+    for (int t = 0; t < tables; t++) {
+      coders[t] = SymbolCoder.build(merged[t], 256);
+      bits += coders[t].encodedBits(merged[t]) + coders[t].treeBits();
+    }
+    return new Plan(tables, contextMap, coders, bits);
+  }
+
+  private static int[][] merge(int[][] histograms, int[] contextMap, int tables) {
+    int[][] merged = new int[tables][256];
+    for (int c = 0; c < 256; c++) {
+      int[] target = merged[contextMap[c]];
+      for (int s = 0; s < 256; s++) {
+        target[s] += histograms[c][s];
+      }
+    }
+    return merged;
+  }
+
+  // Estimated bits per symbol under a histogram, with unseen symbols given
+  // a half count so that no context is ever infinitely expensive.
+  private static double[] symbolCosts(int[] histogram) {
+    double total = 128.0;
+    for (int s = 0; s < 256; s++) {
+      total += histogram[s];
+    }
+    double[] costs = new double[256];
+    for (int s = 0; s < 256; s++) {
+      double count = (histogram[s] > 0) ? histogram[s] : 0.5;
+      costs[s] = Math.log(total / count) / Math.log(2);
+    }
+    return costs;
+  }
+
+  private static int mapBits(int tables) {
+    return 32 - Integer.numberOfLeadingZeros(tables - 1);
+  }
+}
@@ -0,0 +1,132 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+// The client end of CompressionDaemon: sends files to a running daemon
+// over its Unix domain socket and writes back what it returns.
+//
+// All requests of a run go over one connection. A sender thread streams
+// them out back to back while the calling thread reads the answers, so
+// the daemon sees a queue of pipelined requests it can batch.
+public class DaemonClient implements Closeable {
+  private final SocketChannel channel;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  public DaemonClient(Path socket) throws IOException {
+    this.channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+    this.in = new DataInputStream(new BufferedInputStream(
+      CompressionDaemon.inputOf(channel), CompressionDaemon.CHUNK_SIZE));
+    this.out = new DataOutputStream(new BufferedOutputStream(
+      CompressionDaemon.outputOf(channel), CompressionDaemon.CHUNK_SIZE));
+    out.writeInt(CompressionDaemon.MAGIC);
+    out.writeByte(CompressionDaemon.VERSION);
+  }
+
+  // Has the daemon apply `op` (CompressionDaemon.OP_COMPRESS or
+  // OP_DECOMPRESS), configured by the codec `flags`, to each of `inputs`,
+  // writing the result to the matching entry of `outputs`. Each output is
+  // written under a temporary name and renamed into place once the daemon
+  // reports success. Failures are reported on stderr and counted in the
+  // return value rather than ending the run.
+  public int run(int op, String flags, List<Path> inputs, List<Path> outputs)
+      throws IOException {
+    if (inputs.size() != outputs.size()) {
+      throw new IllegalArgumentException(
+        String.format("%d inputs but %d outputs", inputs.size(), outputs.size()));
+    }
+    long[] sizes = new long[inputs.size()];
+    for (int i = 0; i < inputs.size(); i++) {
+      sizes[i] = Files.size(inputs.get(i));
+    }
+    IOException[] sendError = new IOException[1];
+    Thread sender = new Thread(() -> {
+      try {
+        for (int i = 0; i < inputs.size(); i++) {
+          out.writeByte(op);
+          out.writeUTF(flags);
+          out.writeLong(sizes[i]);
+          try (InputStream file = Files.newInputStream(inputs.get(i))) {
+            if (file.transferTo(out) != sizes[i]) {
+              throw new IOException(
+                String.format("%s changed while being sent", inputs.get(i)));
+            }
+          }
+        }
+        out.flush();
+      } catch (IOException e) {
+        sendError[0] = e;
+        try {
+          channel.shutdownInput();
+        } catch (IOException ignored) {
+          /* the reader will fail on its own */
+        }
+      }
+    }, "daemon-client-send");
+    sender.start();
+
+    int failures = 0;
+    IOException readError = null;
+    try {
+      for (int i = 0; i < outputs.size(); i++) {
+        String error = receive(outputs.get(i));
+        if (error != null) {
+          failures++;
+          System.err.println(String.format("Error: %s: %s", inputs.get(i), error));
+        }
+      }
+    } catch (IOException e) {
+      readError = e;
+      // Unblocks the sender if the daemon has stopped reading.
+      channel.close();
+    }
+    try {
+      sender.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (sendError[0] != null) {
+      throw sendError[0];
+    }
+    if (readError != null) {
+      throw readError;
+    }
+    return failures;
+  }
+
+  // Reads one answer into `target`. Returns null on success, or the
+  // daemon's error message.
+  private String receive(Path target) throws IOException {
+    Path temp = target.resolveSibling(target.getFileName() + ".part");
+    try {
+      try (OutputStream file = new BufferedOutputStream(
+             Files.newOutputStream(temp), CompressionDaemon.CHUNK_SIZE)) {
+        byte[] chunk = new byte[CompressionDaemon.CHUNK_SIZE];
+        int length;
+        while ((length = in.readInt()) > 0) {
+          if (length > chunk.length) {
+            throw new IOException(
+              String.format("Bad chunk length from daemon: %d", length));
+          }
+          in.readFully(chunk, 0, length);
+          file.write(chunk, 0, length);
+        }
+      }
+      if (in.readUnsignedByte() != CompressionDaemon.STATUS_OK) {
+        Files.deleteIfExists(temp);
+        return in.readUTF();
+      }
+      BatchEncoder.moveIntoPlace(temp, target);
+      return null;
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,195 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+// A bounded cache of decode-ready codes, keyed by the exact bits of the
+// serialized tree they were read from, so that streams which keep sending
+// the same tree (many small files made from one template, say) rebuild its
+// codes and decode table once instead of once per block.
+//
+// A lookup still walks the tree's bits, to find where it ends and copy
+// them out as the key, but allocates nothing else. Entries are weighed by
+// the memory their arrays take, and the least recently used are evicted
+// once the total passes `maxBytes`. A cache of 0 bytes is disabled: it
+// reads every tree in full and counts nothing. All methods are safe to
+// call from several threads; the codes handed out are shared and must only
+// be used to decode.
+public class DecodeTableCache {
+  public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+  // Rough per-entry cost of the key object and map entry.
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private static final DecodeTableCache SHARED =
+    new DecodeTableCache(DEFAULT_MAX_BYTES);
+
+  private final long maxBytes;
+  // In access order, least recently used first. Guarded by itself, as is
+  // `bytes`.
+  private final LinkedHashMap<Key, SymbolCoder> entries =
+    new LinkedHashMap<Key, SymbolCoder>(16, 0.75f, true);
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  // The process-wide cache used by codecs that aren't given one.
+  public static DecodeTableCache shared() {
+    return SHARED;
+  }
+
+  public DecodeTableCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException(
+        String.format("Cache size must not be negative: %d", maxBytes));
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  // Does what `SymbolCoder.readTree` does, returning the cached code when
+  // the same tree, for the same alphabet size, has been read before.
+  public SymbolCoder readTree(BitReader in, int alphabetSize)
+      throws IOException {
+    if (maxBytes == 0) {
+      return SymbolCoder.readTree(in, alphabetSize);
+    }
+    BitReader tree = in.duplicate();
+    Key key = Key.read(in, alphabetSize);
+    SymbolCoder coder;
+    synchronized (entries) {
+      coder = entries.get(key);
+    }
+    if (coder != null) {
+      hits.incrementAndGet();
+      return coder;
+    }
+    misses.incrementAndGet();
+    coder = SymbolCoder.readTree(tree, alphabetSize);
+    add(key, coder);
+    return coder;
+  }
+
+  private void add(Key key, SymbolCoder coder) {
+    long weight = weigh(key, coder);
+    if (weight > maxBytes) {
+      return;
+    }
+    synchronized (entries) {
+      // Another thread may have read the same tree in the meantime.
+      if (entries.putIfAbsent(key, coder) != null) {
+        return;
+      }
+      bytes += weight;
+      Iterator<Map.Entry<Key, SymbolCoder>> eldest = entries.entrySet().iterator();
+      while (bytes > maxBytes) {
+        Map.Entry<Key, SymbolCoder> entry = eldest.next();
+        bytes -= weigh(entry.getKey(), entry.getValue());
+        eldest.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private static long weigh(Key key, SymbolCoder coder) {
+    return ENTRY_OVERHEAD + key.bits.length + coder.footprint();
+  }
+
+  // Drops every entry. The counters are kept.
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      bytes = 0;
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  // Number of trees found in the cache.
+  public long getHits() {
+    return hits.get();
+  }
+
+  // Number of trees that had to be rebuilt.
+  public long getMisses() {
+    return misses.get();
+  }
+
+  // Number of entries dropped to stay within `maxBytes`.
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  // Number of codes currently held.
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  // Approximate bytes currently held.
+  public long heldBytes() {
+    synchronized (entries) {
+      return bytes;
+    }
+  }
+
+  public String toString() {
+    long lookups = hits.get() + misses.get();
+    return String.format(
+      "%d hits, %d misses (%.1f%% hit rate), %d evicted, %d tables, %d bytes held",
+      hits.get(), misses.get(),
+      (lookups == 0) ? 0.0 : 100.0 * hits.get() / lookups,
+      evictions.get(), size(), heldBytes());
+  }
+
+  // A serialized tree: its bits, packed high bit first and padded with
+  // zeros, and the alphabet it was written for.
+  private static final class Key {
+    final int alphabetSize;
+    final long length;
+    final byte[] bits;
+    final int hash;
+
+    private Key(int alphabetSize, long length, byte[] bits) {
+      this.alphabetSize = alphabetSize;
+      this.length = length;
+      this.bits = bits;
+      this.hash = 31 * (31 * alphabetSize + Long.hashCode(length))
+        + Arrays.hashCode(bits);
+    }
+
+    // Reads the tree at the reader's position as a key, leaving the reader
+    // just past it.
+    static Key read(BitReader in, int alphabetSize) throws IOException {
+      BitReader probe = in.duplicate();
+      SymbolCoder.skipTree(probe, alphabetSize);
+      long length = probe.tally() - in.tally();
+      byte[] bits = new byte[(int) ((length + 7) / 8)];
+      int whole = (int) (length / 8);
+      for (int i = 0; i < whole; i++) {
+        bits[i] = (byte) in.peekBits(8);
+        in.skipBits(8);
+      }
+      int rest = (int) (length % 8);
+      if (rest > 0) {
+        bits[whole] = (byte) (in.readBits(rest) << (8 - rest));
+      }
+      return new Key(alphabetSize, length, bits);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return hash == key.hash && alphabetSize == key.alphabetSize
+        && length == key.length && Arrays.equals(bits, key.bits);
+    }
+  }
+}
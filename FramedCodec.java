@@ -0,0 +1,1126 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+// A block-framed container around the Huffman coder. Unlike the format
+// written by `HuffmanCodes.encode`, input is split into blocks of at most
+// `CodecOptions.getBlockSize()` bytes, each with its own tree, and every
+// block records its uncompressed length so that decoding never depends on
+// the padding at the end of the bit stream.
+//
+// Layout (all integers big-endian; a varint is an unsigned LEB128 number,
+// seven bits per byte, low group first):
+//
+//   int   MAGIC
+//   byte  VERSION
+//   byte  flags            (FLAG_CHECKSUMS, FLAG_TRANSFORMS)
+//   int   block size
+//   byte  stage count, byte stage id*     (only with FLAG_TRANSFORMS)
+//   block*:
+//     byte  type           (BLOCK_*)
+//     varint raw length
+//     varint payload length
+//     byte  payload[payload length]
+//                          BLOCK_HUFFMAN: tree (as `writeTree`) + code bits
+//                          BLOCK_HUFFMAN16: tree over big-endian 16-bit
+//                                         symbols (SymbolCoder, 16-bit
+//                                         leaves) + code bits, then a raw
+//                                         trailing byte if the length is odd
+//                          BLOCK_STORED:  the raw bytes
+//                          BLOCK_SINGLE:  the one byte repeated throughout
+//                          BLOCK_TWO:     the 0 and 1 symbols, then one bit
+//                                         per byte
+//                          BLOCK_HUFFMAN4: tree, padded to a byte, then
+//                                         the byte lengths of streams 0-2
+//                                         (3 ints), then 4 byte-aligned code
+//                                         streams for the 4 quarters
+//                          BLOCK_LZ:      as written by `LzCodec.encode`
+//                          BLOCK_ORDER1:  as written by `ContextCoder.encode`
+//     int   CRC32C of the raw bytes       (only with FLAG_CHECKSUMS)
+//
+// BLOCK_HUFFMAN and BLOCK_HUFFMAN4 types may carry BLOCK_REPEAT_TABLE, in
+// which case the payload starts without a tree (so BLOCK_HUFFMAN4 starts
+// at its jump table) and the code is that of the last block of either type.
+//
+// With FLAG_TRANSFORMS, each input block is instead introduced by a
+// BLOCK_GROUP header (its original length, then the length after all
+// stages) with no payload or checksum, followed by ordinary blocks that
+// together hold the transformed bytes.
+//
+//   byte  BLOCK_END
+//   long  total uncompressed length
+//   int   CRC32C of the whole file        (only with FLAG_CHECKSUMS)
+//
+// Version 1 streams, which are still read, differ only in using ints for
+// the block and group lengths and in having no total length.
+public class FramedCodec {
+  public static final int MAGIC = 0x48554631; // "HUF1"
+  public static final int VERSION = 2;
+
+  public static final int FLAG_CHECKSUMS = 0x01;
+  public static final int FLAG_TRANSFORMS = 0x02;
+
+  public static final int BLOCK_END = 0;
+  public static final int BLOCK_HUFFMAN = 1;
+  public static final int BLOCK_STORED = 2;
+  public static final int BLOCK_SINGLE = 3;
+  public static final int BLOCK_TWO = 4;
+  public static final int BLOCK_GROUP = 5;
+  public static final int BLOCK_LZ = 6;
+  public static final int BLOCK_HUFFMAN16 = 7;
+  public static final int BLOCK_ORDER1 = 8;
+  public static final int BLOCK_HUFFMAN4 = 9;
+  // Set on a BLOCK_HUFFMAN or BLOCK_HUFFMAN4 type that reuses the code of
+  // the last such block instead of carrying its own tree.
+  public static final int BLOCK_REPEAT_TABLE = 0x80;
+
+  // Shortest block worth splitting into BLOCK_HUFFMAN4's four streams.
+  public static final int MIN_INTERLEAVED_LENGTH = 1024;
+
+  // Runs at least this long are split out into their own BLOCK_SINGLE, which
+  // costs a fixed dozen bytes however long the run is.
+  public static final int MIN_RUN_LENGTH = 256;
+
+  // Per level (index 0 unused): log2 of the fraction of a block whose
+  // counts are sampled, how much costlier than a fresh code the previous
+  // block's code may be estimated to be and still be kept, and how many
+  // times in a row a block may be split in two.
+  private static final int[] SAMPLE_SHIFT = { 0, 3, 2, 1, 0, 0, 0, 0, 0, 0 };
+  private static final double[] REUSE_TOLERANCE =
+    { 0, 0.05, 0.03, 0.02, 0.01, 0, 0, 0, 0, 0 };
+  private static final int[] SPLIT_DEPTH = { 0, 0, 0, 0, 0, 0, 1, 2, 3, 4 };
+  // Codes are carried forward from block to block only within chains of
+  // input blocks this long in total, which are also the unit of work for
+  // parallel compression, so output doesn't depend on the thread count.
+  private static final int CHAIN_BYTES = 1024 * 1024;
+  // Shorter blocks are always counted in full: a code built from a sample
+  // has to cover all 256 byte values, and its tree would cost more than
+  // sampling saves.
+  private static final int MIN_SAMPLED_LENGTH = 64 * 1024;
+  private static final int SAMPLE_CHUNK = 1024;
+  // Parts shorter than this aren't split any further.
+  private static final int MIN_SPLIT_LENGTH = 4096;
+  // Split points tried per split, at even fractions of the block.
+  private static final int SPLIT_CANDIDATES = 8;
+  // Most bytes a block's payload can take beyond its raw length. An optimal
+  // code never costs more than 8 bits a byte, so what's left is a full
+  // 256-leaf tree and BLOCK_HUFFMAN4's jump table and padding; every other
+  // block type is stored raw before it would grow. Headers claiming more
+  // are rejected before anything is allocated for them.
+  private static final int MAX_PAYLOAD_OVERHEAD =
+    (255 + 9 * 256 + 3 * 32 + 5 * 7 + 7) / 8;
+
+  private final CodecOptions options;
+  private final Kernels kernels = Kernels.get();
+
+  public FramedCodec() {
+    this(new CodecOptions());
+  }
+
+  public FramedCodec(CodecOptions options) {
+    this.options = options;
+  }
+
+  public void compress(String fileIn, String fileOut) throws IOException {
+    // Output is no larger than the input plus a little framing, so a
+    // small input needs no write-behind thread either.
+    boolean small = new File(fileIn).length() < options.getIoBufferSize();
+    try (InputStream in = openInput(fileIn);
+         OutputStream out = openOutput(fileOut, small)) {
+      compress(in, out);
+    }
+  }
+
+  public void decompress(String fileIn, String fileOut) throws IOException {
+    try (InputStream in = openInput(fileIn);
+         OutputStream out = openOutput(fileOut, false)) {
+      decompress(in, out);
+    }
+  }
+
+  public void verify(String fileIn) throws IOException {
+    try (InputStream in = openInput(fileIn)) {
+      verify(in);
+    }
+  }
+
+  // Opens a file for reading ahead on its own thread, unless
+  // `options.getIoBuffers()` is 1 or the whole file fits in one buffer,
+  // where there is nothing to overlap and starting the thread and its
+  // buffers would only delay the first byte.
+  private InputStream openInput(String file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    if (options.getIoBuffers() < 2
+        || new File(file).length() < options.getIoBufferSize()) {
+      return new BufferedInputStream(in, options.getIoBufferSize());
+    }
+    return new ReadAheadInputStream(in, options.getIoBufferSize(),
+                                    options.getIoBuffers(),
+                                    options.getBufferPool());
+  }
+
+  // Opens a file for writing behind on its own thread, unless
+  // `options.getIoBuffers()` is 1 or the output is known to be `small`.
+  private OutputStream openOutput(String file, boolean small)
+      throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    if (options.getIoBuffers() < 2 || small) {
+      return new BufferedOutputStream(out, options.getIoBufferSize());
+    }
+    return new WriteBehindOutputStream(out, options.getIoBufferSize(),
+                                       options.getIoBuffers(),
+                                       options.getBufferPool());
+  }
+
+  public void compress(InputStream in, OutputStream rawOut) throws IOException {
+    DataOutputStream out = new DataOutputStream(rawOut);
+    boolean checksums = options.hasChecksums();
+    List<Transform> stages = options.getTransforms();
+    int flags = (checksums ? FLAG_CHECKSUMS : 0)
+      | (stages.isEmpty() ? 0 : FLAG_TRANSFORMS);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(flags);
+    out.writeInt(options.getBlockSize());
+    if (!stages.isEmpty()) {
+      out.writeByte(stages.size());
+      for (Transform stage : stages) {
+        out.writeByte(stage.id());
+      }
+    }
+
+    CRC32C fileCrc = new CRC32C();
+    long total = 0;
+    if (options.getThreads() <= 1) {
+      BufferPool pool = options.getBufferPool();
+      int blockSize = options.getBlockSize();
+      FrameWriter writer = new FrameWriter(out, checksums, pool);
+      byte[] block = pool.acquire(blockSize);
+      try {
+        int chain = chainLength();
+        int length;
+        for (int n = 0; (length = in.readNBytes(block, 0, blockSize)) > 0; n++) {
+          total += length;
+          if (checksums) {
+            fileCrc.update(block, 0, length);
+          }
+          if (n % chain == 0) {
+            writer.previous = null;
+          }
+          writeInputBlock(writer, block, length);
+        }
+      } finally {
+        pool.release(block);
+        writer.release();
+      }
+    } else {
+      total = compressParallel(in, out, fileCrc);
+    }
+    out.writeByte(BLOCK_END);
+    out.writeLong(total);
+    if (checksums) {
+      out.writeInt((int) fileCrc.getValue());
+    }
+    out.flush();
+  }
+
+  // Number of consecutive input blocks over which a code may be carried
+  // forward: as many as fit in CHAIN_BYTES, and at least one.
+  private int chainLength() {
+    return Math.max(1, CHAIN_BYTES / options.getBlockSize());
+  }
+
+  // Codes chains of input blocks on `options.getThreads()` workers, each
+  // into its own buffer, and writes the results in input order. At most two
+  // chains per worker are in flight, which bounds memory use; their input
+  // and output buffers cycle through the pool. Returns the number of bytes
+  // read.
+  private long compressParallel(InputStream in, DataOutputStream out,
+                                CRC32C fileCrc) throws IOException {
+    int threads = options.getThreads();
+    int blockSize = options.getBlockSize();
+    int chain = chainLength();
+    boolean checksums = options.hasChecksums();
+    BufferPool buffers = options.getBufferPool();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long total = 0;
+    try {
+      Deque<Future<PooledOutput>> pending = new ArrayDeque<Future<PooledOutput>>();
+      boolean more = true;
+      while (more) {
+        List<byte[]> blocks = new ArrayList<byte[]>(chain);
+        int[] lengths = new int[chain];
+        while (blocks.size() < chain) {
+          byte[] block = buffers.acquire(blockSize);
+          int length = in.readNBytes(block, 0, blockSize);
+          if (length <= 0) {
+            buffers.release(block);
+            more = false;
+            break;
+          }
+          total += length;
+          if (checksums) {
+            fileCrc.update(block, 0, length);
+          }
+          lengths[blocks.size()] = length;
+          blocks.add(block);
+        }
+        if (blocks.isEmpty()) {
+          break;
+        }
+        pending.add(pool.submit(() -> {
+          PooledOutput buffer =
+            new PooledOutput(buffers, blocks.size() * blockSize / 2 + 64);
+          FrameWriter writer =
+            new FrameWriter(new DataOutputStream(buffer), checksums, buffers);
+          try {
+            for (int i = 0; i < blocks.size(); i++) {
+              writeInputBlock(writer, blocks.get(i), lengths[i]);
+            }
+          } finally {
+            writer.release();
+            for (byte[] block : blocks) {
+              buffers.release(block);
+            }
+          }
+          return buffer;
+        }));
+        if (pending.size() >= 2 * threads) {
+          drain(await(pending.remove()), out);
+        }
+      }
+      while (!pending.isEmpty()) {
+        drain(await(pending.remove()), out);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return total;
+  }
+
+  private static void drain(PooledOutput buffer, OutputStream out)
+      throws IOException {
+    try {
+      buffer.writeTo(out);
+    } finally {
+      buffer.release();
+    }
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // Writes all the blocks for one input block: runs it through the
+  // configured stages, if any, under a BLOCK_GROUP header.
+  private void writeInputBlock(FrameWriter writer, byte[] block, int length)
+      throws IOException {
+    List<Transform> stages = options.getTransforms();
+    if (stages.isEmpty()) {
+      writeSegments(writer, block, 0, length);
+      return;
+    }
+    byte[] transformed = block;
+    int transformedLength = length;
+    for (Transform stage : stages) {
+      transformed = stage.forward(transformed, 0, transformedLength);
+      transformedLength = transformed.length;
+    }
+    writer.writeGroup(length, transformedLength);
+    // Stages may expand their input, so re-chunk to keep every coded
+    // block within the block size (and so within 32-bit codes).
+    int blockSize = options.getBlockSize();
+    for (int offset = 0; offset < transformedLength; offset += blockSize) {
+      writeSegments(writer, transformed, offset,
+                    Math.min(blockSize, transformedLength - offset));
+    }
+  }
+
+  public void decompress(InputStream in, OutputStream out) throws IOException {
+    decode(in, out);
+  }
+
+  // Decodes the whole stream and checks every checksum it carries without
+  // writing any output. Throws an IOException describing the first
+  // problem found.
+  public void verify(InputStream in) throws IOException {
+    decode(in, null);
+  }
+
+  private void decode(InputStream rawIn, OutputStream out) throws IOException {
+    DataInputStream in = new DataInputStream(rawIn);
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a framed Huffman stream");
+    }
+    int version = in.readUnsignedByte();
+    if (version < 1 || version > VERSION) {
+      throw new IOException(String.format("Unsupported version: %d", version));
+    }
+    int flags = in.readUnsignedByte();
+    boolean checksums = (flags & FLAG_CHECKSUMS) != 0;
+    int blockSize = in.readInt();
+    if (blockSize < 1 || blockSize > CodecOptions.MAX_BLOCK_SIZE) {
+      throw new IOException(String.format("Invalid block size: %d", blockSize));
+    }
+    List<Transform> stages = new ArrayList<Transform>();
+    if ((flags & FLAG_TRANSFORMS) != 0) {
+      int count = in.readUnsignedByte();
+      for (int i = 0; i < count; i++) {
+        stages.add(Transform.forId(in.readUnsignedByte()));
+      }
+    }
+    int maxTransformed = blockSize;
+    for (Transform stage : stages) {
+      maxTransformed = stage.maxForwardLength(maxTransformed);
+    }
+
+    BufferPool pool = options.getBufferPool();
+    FrameReader reader = new FrameReader(in, version, checksums, pool,
+                                         options.getDecodeTableCache());
+    byte[] block = pool.acquire(blockSize);
+    byte[] transformed = stages.isEmpty() ? block : pool.acquire(maxTransformed);
+    try {
+      CRC32C fileCrc = new CRC32C();
+      long total = 0;
+      int type;
+      while ((type = in.readUnsignedByte()) != BLOCK_END) {
+        byte[] result = block;
+        int length;
+        if (type == BLOCK_GROUP) {
+          length = reader.readLength();
+          int transformedLength = reader.readLength();
+          if (stages.isEmpty() || length < 0 || length > blockSize
+              || transformedLength < 0 || transformedLength > maxTransformed) {
+            throw new IOException(
+              String.format("Block %d: invalid group", reader.blockNumber));
+          }
+          int filled = 0;
+          while (filled < transformedLength) {
+            filled += reader.readBlock(in.readUnsignedByte(), transformed, filled,
+                                       transformedLength - filled);
+          }
+          // The most each stage's input can have held, given the group's
+          // length, so that a corrupt stage fails before allocating for
+          // more.
+          int[] maxInput = new int[stages.size()];
+          maxInput[0] = length;
+          for (int i = 1; i < stages.size(); i++) {
+            maxInput[i] = stages.get(i - 1).maxForwardLength(maxInput[i - 1]);
+          }
+          result = transformed;
+          int resultLength = transformedLength;
+          for (int i = stages.size() - 1; i >= 0; i--) {
+            result = stages.get(i).inverse(result, resultLength, maxInput[i]);
+            resultLength = result.length;
+          }
+          if (resultLength != length) {
+            throw new IOException(
+              String.format("Block %d: group length mismatch", reader.blockNumber));
+          }
+        } else {
+          length = reader.readBlock(type, block, 0, blockSize);
+        }
+        total += length;
+        if (checksums) {
+          fileCrc.update(result, 0, length);
+        }
+        if (out != null) {
+          out.write(result, 0, length);
+        }
+      }
+      if (version >= 2) {
+        long expected = in.readLong();
+        if (expected != total) {
+          throw new IOException(String.format(
+            "Length mismatch: stream says %d bytes, decoded %d", expected, total));
+        }
+      }
+      if (checksums && in.readInt() != (int) fileCrc.getValue()) {
+        throw new IOException("File checksum mismatch");
+      }
+      if (out != null) {
+        out.flush();
+      }
+    } finally {
+      reader.release();
+      pool.release(block);
+      if (transformed != block) {
+        pool.release(transformed);
+      }
+    }
+  }
+
+  // Splits `length` bytes of `block` at `offset` around runs of at least
+  // MIN_RUN_LENGTH identical bytes, emitting each run as a BLOCK_SINGLE and
+  // coding the stretches in between with `writeBlock`.
+  private void writeSegments(FrameWriter writer, byte[] block, int offset,
+                             int length) throws IOException {
+    int end = offset + length;
+    int start = offset;
+    int i = offset;
+    while (i < end) {
+      int runEnd = i + kernels.runLength(block, i, end);
+      if (runEnd - i >= MIN_RUN_LENGTH) {
+        if (i > start) {
+          writeSplit(writer, block, start, i - start, SPLIT_DEPTH[options.getLevel()]);
+        }
+        writer.write(BLOCK_SINGLE, block, i, runEnd - i, block, i, 1);
+        start = runEnd;
+      }
+      i = runEnd;
+    }
+    if (start < end) {
+      writeSplit(writer, block, start, end - start, SPLIT_DEPTH[options.getLevel()]);
+    }
+  }
+
+  // Codes `length` bytes of `block` at `offset`, first splitting them in two
+  // (up to `depth` times over) wherever separate codes for the parts are
+  // estimated to save more than the extra block header costs. Candidate
+  // split points sit at even fractions of the stretch; each is costed with
+  // an order-0 code built from prefix sums of the per-fraction counts.
+  private void writeSplit(FrameWriter writer, byte[] block, int offset,
+                          int length, int depth) throws IOException {
+    if (depth == 0 || length < 2 * MIN_SPLIT_LENGTH || options.getLzLevel() > 0) {
+      writeBlock(writer, block, offset, length);
+      return;
+    }
+    int[][] prefix = new int[SPLIT_CANDIDATES + 1][256];
+    int[] bounds = new int[SPLIT_CANDIDATES + 1];
+    for (int p = 1; p <= SPLIT_CANDIDATES; p++) {
+      bounds[p] = (int) ((long) length * p / SPLIT_CANDIDATES);
+      System.arraycopy(prefix[p - 1], 0, prefix[p], 0, 256);
+      kernels.histogram(block, offset + bounds[p - 1], bounds[p] - bounds[p - 1],
+                        prefix[p]);
+    }
+    int[] total = prefix[SPLIT_CANDIDATES];
+    long headerBits = 8 * (9 + (options.hasChecksums() ? 4 : 0));
+    long bestBits = estimatedBits(total);
+    int bestSplit = -1;
+    int[] rest = new int[256];
+    for (int p = 1; p < SPLIT_CANDIDATES; p++) {
+      if (bounds[p] < MIN_SPLIT_LENGTH || length - bounds[p] < MIN_SPLIT_LENGTH) {
+        continue;
+      }
+      for (int s = 0; s < 256; s++) {
+        rest[s] = total[s] - prefix[p][s];
+      }
+      long bits = estimatedBits(prefix[p]) + estimatedBits(rest) + headerBits;
+      if (bits < bestBits) {
+        bestBits = bits;
+        bestSplit = bounds[p];
+      }
+    }
+    if (bestSplit < 0) {
+      writeBlock(writer, block, offset, length);
+      return;
+    }
+    writeSplit(writer, block, offset, bestSplit, depth - 1);
+    writeSplit(writer, block, offset + bestSplit, length - bestSplit, depth - 1);
+  }
+
+  // Size in bits of the tree and code for a byte stretch with these counts.
+  private static long estimatedBits(int[] counts) {
+    SymbolCoder coder = SymbolCoder.build(counts, 256);
+    return coder.encodedBits(counts) + coder.treeBits();
+  }
+
+  // Adds the counts of every `1 << shift`th SAMPLE_CHUNK-byte stretch of the
+  // block to `counts`, scaled back up to the block's length.
+  private static void sampleHistogram(byte[] block, int offset, int length,
+                                      int shift, int[] counts) {
+    int step = SAMPLE_CHUNK << shift;
+    for (int start = offset; start < offset + length; start += step) {
+      int end = Math.min(offset + length, start + SAMPLE_CHUNK);
+      for (int i = start; i < end; i++) {
+        counts[block[i] & 0xFF]++;
+      }
+    }
+    for (int s = 0; s < 256; s++) {
+      counts[s] <<= shift;
+    }
+  }
+
+  // The code for an order-0 byte block with the given counts. The previous
+  // Huffman block's code, if it covers every symbol present, can be used
+  // again without sending its tree (BLOCK_REPEAT_TABLE); it is kept if its
+  // code bits come to no more than a fresh code's bits and tree. Fast
+  // levels keep it without building a fresh code at all while it stays
+  // within REUSE_TOLERANCE of the entropy bound.
+  private SymbolCoder chooseCoder(FrameWriter writer, int[] counts) {
+    SymbolCoder previous = writer.previous;
+    if (previous == null || !covers(previous, counts)) {
+      return SymbolCoder.build(counts, 256);
+    }
+    long reuseBits = previous.encodedBits(counts);
+    double tolerance = REUSE_TOLERANCE[options.getLevel()];
+    if (tolerance > 0 && reuseBits <= entropyBits(counts) * (1.0 + tolerance)) {
+      return previous;
+    }
+    SymbolCoder fresh = SymbolCoder.build(counts, 256);
+    return (reuseBits <= fresh.encodedBits(counts) + fresh.treeBits())
+      ? previous : fresh;
+  }
+
+  // Lower bound on the code bits for the given counts, plus an estimate of
+  // a fresh tree's size.
+  private static double entropyBits(int[] counts) {
+    long total = 0;
+    for (int s = 0; s < 256; s++) {
+      total += counts[s];
+    }
+    double bits = 10 * distinctSymbols(counts);
+    for (int s = 0; s < 256; s++) {
+      if (counts[s] > 0) {
+        bits += counts[s] * (Math.log((double) total / counts[s]) / Math.log(2));
+      }
+    }
+    return bits;
+  }
+
+  private static int distinctSymbols(int[] counts) {
+    int distinct = 0;
+    for (int s = 0; s < 256; s++) {
+      distinct += (counts[s] > 0) ? 1 : 0;
+    }
+    return distinct;
+  }
+
+  private static boolean covers(SymbolCoder coder, int[] counts) {
+    for (int s = 0; s < 256; s++) {
+      if (counts[s] > 0 && coder.length(s) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Codes `length` bytes of `block` starting at `offset`.
+  //
+  // One- and two-symbol inputs skip tree building entirely. In LZ mode the
+  // rest goes through LzCodec. Otherwise the size of the Huffman-coded form
+  // is known exactly from the histogram and code lengths before any bits
+  // are produced, which picks between byte symbols, 16-bit symbols and
+  // order-1 contexts when those are enabled, and stores blocks that
+  // wouldn't shrink by at least `minGain` raw without running the coding
+  // loop.
+  private void writeBlock(FrameWriter writer, byte[] block, int offset,
+                          int length) throws IOException {
+    int[] counts = new int[256];
+    int shift = SAMPLE_SHIFT[options.getLevel()];
+    boolean sampled = shift > 0 && length >= MIN_SAMPLED_LENGTH
+      && options.getLzLevel() == 0 && options.getSymbolBits() == 8;
+    if (sampled) {
+      sampleHistogram(block, offset, length, shift, counts);
+      if (distinctSymbols(counts) <= 2) {
+        // One- and two-symbol blocks must be counted in full to be trusted.
+        Arrays.fill(counts, 0);
+        sampled = false;
+      }
+    }
+    if (!sampled) {
+      kernels.histogram(block, offset, length, counts);
+    }
+    int first = -1;
+    int second = -1;
+    int distinct = 0;
+    for (int s = 0; s < 256; s++) {
+      if (counts[s] > 0) {
+        distinct++;
+        if (first < 0) {
+          first = s;
+        } else if (second < 0) {
+          second = s;
+        }
+      }
+    }
+    if (distinct == 1) {
+      writer.write(BLOCK_SINGLE, block, offset, length, block, offset, 1);
+      return;
+    }
+    BitWriter payload = writer.payload();
+    if (distinct == 2 && 2 + (length + 7) / 8 < length) {
+      encodeTwoSymbols(block, offset, length, (byte) first, (byte) second,
+                       payload);
+      writer.write(BLOCK_TWO, block, offset, length, payload);
+      return;
+    }
+
+    if (sampled) {
+      // Unsampled bytes may hold any value, so every value needs a code.
+      for (int s = 0; s < 256; s++) {
+        counts[s] = Math.max(counts[s], 1);
+      }
+    }
+
+    if (options.getLzLevel() > 0) {
+      LzCodec.encode(block, offset, length, options.getLzLevel(), payload);
+      if (payload.size() > length * (1.0 - options.getMinGain())) {
+        writer.write(BLOCK_STORED, block, offset, length, block, offset, length);
+      } else {
+        writer.write(BLOCK_LZ, block, offset, length, payload);
+      }
+      return;
+    }
+
+    SymbolCoder coder = chooseCoder(writer, counts);
+    long bits = coder.encodedBits(counts)
+      + ((coder == writer.previous) ? 0 : coder.treeBits());
+    int type = BLOCK_HUFFMAN;
+    if (options.getSymbolBits() == 16 && length >= 2) {
+      int[] wideCounts = new int[SymbolCoder.MAX_ALPHABET_SIZE];
+      for (int i = offset; i + 1 < offset + length; i += 2) {
+        wideCounts[((block[i] & 0xFF) << 8) | (block[i + 1] & 0xFF)]++;
+      }
+      SymbolCoder wide = SymbolCoder.build(wideCounts, SymbolCoder.MAX_ALPHABET_SIZE);
+      long wideBits = wide.encodedBits(wideCounts) + wide.treeBits()
+        + 8 * (length & 1);
+      if (wideBits < bits) {
+        coder = wide;
+        bits = wideBits;
+        type = BLOCK_HUFFMAN16;
+      }
+    }
+    if (type == BLOCK_HUFFMAN && options.getStreams() == 4
+        && length >= MIN_INTERLEAVED_LENGTH) {
+      // Jump table plus worst-case padding of the tree and four streams.
+      bits += 3 * 32 + 5 * 7;
+      type = BLOCK_HUFFMAN4;
+    }
+    ContextCoder.Plan plan = null;
+    if (options.getContextOrder() == 1) {
+      ContextCoder.Plan candidate = ContextCoder.plan(block, offset, length);
+      if (candidate.bits() < bits) {
+        plan = candidate;
+        bits = candidate.bits();
+        type = BLOCK_ORDER1;
+      }
+    }
+    if ((bits + 7) / 8 > length * (1.0 - options.getMinGain())) {
+      writer.write(BLOCK_STORED, block, offset, length, block, offset, length);
+      return;
+    }
+    if (type == BLOCK_ORDER1) {
+      ContextCoder.encode(plan, block, offset, length, payload);
+    } else if (type == BLOCK_HUFFMAN16) {
+      encodeBlock16(coder, block, offset, length, payload);
+    } else {
+      boolean repeat = (coder == writer.previous);
+      if (type == BLOCK_HUFFMAN4) {
+        encodeBlock4(coder, block, offset, length, payload, !repeat);
+      } else {
+        encodeBlock(coder, block, offset, length, payload, !repeat);
+      }
+      if (repeat) {
+        type |= BLOCK_REPEAT_TABLE;
+      }
+      writer.previous = coder;
+    }
+    writer.write(type, block, offset, length, payload);
+  }
+
+  // Packs a two-symbol stretch as one bit per byte: 0 for `zero`, 1 for
+  // `one`.
+  static void encodeTwoSymbols(byte[] data, int offset, int length,
+                               byte zero, byte one, BitWriter out) {
+    out.writeByte(zero);
+    out.writeByte(one);
+    int end = offset + length;
+    int i = offset;
+    for (; i + 8 <= end; i += 8) {
+      int bits = 0;
+      for (int j = 0; j < 8; j++) {
+        bits = (bits << 1) | ((data[i + j] == one) ? 1 : 0);
+      }
+      out.writeByte(bits);
+    }
+    for (; i < end; i++) {
+      out.writeBit((data[i] == one) ? 1 : 0);
+    }
+  }
+
+  static void decodeTwoSymbols(byte[] payload, byte[] out, int offset,
+                               int length) {
+    byte zero = payload[0];
+    byte one = payload[1];
+    for (int i = 0; i < length; i++) {
+      int bit = (payload[2 + (i >>> 3)] >>> (7 - (i & 7))) & 1;
+      out[offset + i] = (bit == 0) ? zero : one;
+    }
+  }
+
+  // Writes the tree, unless the block repeats the previous one's, followed
+  // by the code bits for `length` bytes of `data` at `offset`.
+  static void encodeBlock(SymbolCoder coder, byte[] data, int offset,
+                          int length, BitWriter out, boolean withTree) {
+    if (withTree) {
+      coder.writeTree(out);
+    }
+    for (int i = offset; i < offset + length; i++) {
+      coder.encode(out, data[i] & 0xFF);
+    }
+  }
+
+  // Decodes a block from `encodeBlock` with `table`, or with the tree at the
+  // start of the payload, looked up in `tables`, if `table` is null, and
+  // returns the code used.
+  static SymbolCoder decodeBlock(byte[] payload, int payloadLength, byte[] out,
+                                 int offset, int length, SymbolCoder table,
+                                 DecodeTableCache tables) throws IOException {
+    BitReader in = new BitReader(payload, 0, payloadLength);
+    SymbolCoder coder = (table != null) ? table : tables.readTree(in, 256);
+    for (int i = offset; i < offset + length; i++) {
+      out[i] = (byte) coder.decode(in);
+    }
+    return coder;
+  }
+
+  // As `encodeBlock`, but with each quarter of the block coded into its own
+  // byte-aligned stream, so that the decoder can run four independent bit
+  // readers in one loop instead of one long dependency chain. The jump
+  // table is written as zeros and filled in once the stream sizes are known.
+  static void encodeBlock4(SymbolCoder coder, byte[] data, int offset,
+                           int length, BitWriter out, boolean withTree) {
+    if (withTree) {
+      coder.writeTree(out);
+      out.padToByte();
+    }
+    int table = out.size();
+    for (int s = 0; s < 3; s++) {
+      out.writeInt(0);
+    }
+    int quarter = (length + 3) / 4;
+    for (int s = 0; s < 4; s++) {
+      int streamStart = out.size();
+      int start = offset + s * quarter;
+      int end = Math.min(offset + length, start + quarter);
+      for (int i = start; i < end; i++) {
+        coder.encode(out, data[i] & 0xFF);
+      }
+      out.padToByte();
+      if (s < 3) {
+        out.setInt(table + 4 * s, out.size() - streamStart);
+      }
+    }
+  }
+
+  static SymbolCoder decodeBlock4(byte[] payload, int payloadLength,
+                                  byte[] out, int offset, int length,
+                                  SymbolCoder table, DecodeTableCache tables)
+      throws IOException {
+    BitReader in = new BitReader(payload, 0, payloadLength);
+    SymbolCoder coder = (table != null) ? table : tables.readTree(in, 256);
+    int pos = (int) ((in.tally() + 7) / 8);
+    int quarter = (length + 3) / 4;
+    int last = length - 3 * quarter;
+    if (last < 0 || pos + 12 > payloadLength) {
+      throw new IOException("Corrupt interleaved block");
+    }
+    int[] sizes = new int[4];
+    int total = 0;
+    for (int s = 0; s < 3; s++) {
+      sizes[s] = ((payload[pos] & 0xFF) << 24) | ((payload[pos + 1] & 0xFF) << 16)
+        | ((payload[pos + 2] & 0xFF) << 8) | (payload[pos + 3] & 0xFF);
+      pos += 4;
+      total += sizes[s];
+      if (sizes[s] < 0 || total > payloadLength - pos) {
+        throw new IOException("Corrupt interleaved jump table");
+      }
+    }
+    sizes[3] = payloadLength - pos - total;
+    BitReader r0 = new BitReader(payload, pos, sizes[0]);
+    BitReader r1 = new BitReader(payload, pos + sizes[0], sizes[1]);
+    BitReader r2 = new BitReader(payload, pos + sizes[0] + sizes[1], sizes[2]);
+    BitReader r3 = new BitReader(payload, pos + total, sizes[3]);
+    int o0 = offset;
+    int o1 = o0 + quarter;
+    int o2 = o1 + quarter;
+    int o3 = o2 + quarter;
+    for (int i = 0; i < last; i++) {
+      out[o0 + i] = (byte) coder.decode(r0);
+      out[o1 + i] = (byte) coder.decode(r1);
+      out[o2 + i] = (byte) coder.decode(r2);
+      out[o3 + i] = (byte) coder.decode(r3);
+    }
+    for (int i = last; i < quarter; i++) {
+      out[o0 + i] = (byte) coder.decode(r0);
+      out[o1 + i] = (byte) coder.decode(r1);
+      out[o2 + i] = (byte) coder.decode(r2);
+    }
+    return coder;
+  }
+
+  // As `encodeBlock`, but coding each pair of bytes as one 16-bit symbol.
+  static void encodeBlock16(SymbolCoder coder, byte[] data, int offset,
+                            int length, BitWriter out) {
+    coder.writeTree(out);
+    int end = offset + (length & ~1);
+    for (int i = offset; i < end; i += 2) {
+      coder.encode(out, ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF));
+    }
+    if ((length & 1) != 0) {
+      out.writeByte(data[end]);
+    }
+  }
+
+  static void decodeBlock16(byte[] payload, int payloadLength, byte[] out,
+                            int offset, int length, DecodeTableCache tables)
+      throws IOException {
+    BitReader in = new BitReader(payload, 0, payloadLength);
+    SymbolCoder coder = tables.readTree(in, SymbolCoder.MAX_ALPHABET_SIZE);
+    int end = offset + (length & ~1);
+    for (int i = offset; i < end; i += 2) {
+      int symbol = coder.decode(in);
+      out[i] = (byte) (symbol >>> 8);
+      out[i + 1] = (byte) symbol;
+    }
+    if ((length & 1) != 0) {
+      out[end] = (byte) in.readByte();
+    }
+  }
+
+  static void writeVarint(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  static long readVarint(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  // A ByteArrayOutputStream counterpart whose buffer comes from, and goes
+  // back to, a BufferPool.
+  private static class PooledOutput extends OutputStream {
+    private final BufferPool pool;
+    private byte[] buffer;
+    private int size;
+
+    PooledOutput(BufferPool pool, int initialCapacity) {
+      this.pool = pool;
+      this.buffer = pool.acquire(initialCapacity);
+    }
+
+    public void write(int b) {
+      ensureCapacity(size + 1);
+      buffer[size++] = (byte) b;
+    }
+
+    public void write(byte[] b, int offset, int length) {
+      ensureCapacity(size + length);
+      System.arraycopy(b, offset, buffer, size, length);
+      size += length;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+      out.write(buffer, 0, size);
+    }
+
+    void release() {
+      pool.release(buffer);
+      buffer = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > buffer.length) {
+        buffer = pool.grow(buffer, size, Math.max(capacity, buffer.length * 2));
+      }
+    }
+  }
+
+  // Writes block headers, payloads and block checksums. Owns the pooled
+  // BitWriter that block payloads are coded into.
+  private static class FrameWriter {
+    private final DataOutputStream out;
+    private final boolean checksums;
+    private final CRC32C blockCrc = new CRC32C();
+    private final BitWriter payload;
+    // The order-0 byte code of the last Huffman block written, which fast
+    // levels may use again for the next.
+    SymbolCoder previous;
+
+    FrameWriter(DataOutputStream out, boolean checksums, BufferPool pool) {
+      this.out = out;
+      this.checksums = checksums;
+      this.payload = new BitWriter(64 * 1024, pool);
+    }
+
+    // The payload writer, emptied for the next block.
+    BitWriter payload() {
+      payload.reset();
+      return payload;
+    }
+
+    void release() {
+      payload.release();
+    }
+
+    void write(int type, byte[] raw, int offset, int length, BitWriter payload)
+        throws IOException {
+      write(type, raw, offset, length, payload.array(), 0, payload.size());
+    }
+
+    // Writes one block of `type` whose uncompressed contents are `length`
+    // bytes of `raw` at `offset`.
+    void write(int type, byte[] raw, int offset, int length,
+               byte[] payload, int payloadOffset, int payloadLength)
+        throws IOException {
+      out.writeByte(type);
+      writeVarint(out, length);
+      writeVarint(out, payloadLength);
+      out.write(payload, payloadOffset, payloadLength);
+      if (checksums) {
+        blockCrc.reset();
+        blockCrc.update(raw, offset, length);
+        out.writeInt((int) blockCrc.getValue());
+      }
+    }
+
+    void writeGroup(int length, int transformedLength) throws IOException {
+      out.writeByte(BLOCK_GROUP);
+      writeVarint(out, length);
+      writeVarint(out, transformedLength);
+    }
+  }
+
+  // Reads and decodes the blocks of one stream, checking block checksums.
+  private static class FrameReader {
+    private final DataInputStream in;
+    private final boolean checksums;
+    private final CRC32C blockCrc = new CRC32C();
+    private final int version;
+    private final BufferPool pool;
+    private final DecodeTableCache tables;
+    private byte[] payload;
+    // The code of the last BLOCK_HUFFMAN or BLOCK_HUFFMAN4 block, decode
+    // table and all, for blocks flagged BLOCK_REPEAT_TABLE.
+    private SymbolCoder previous;
+    int blockNumber = 0;
+
+    FrameReader(DataInputStream in, int version, boolean checksums,
+                BufferPool pool, DecodeTableCache tables) {
+      this.in = in;
+      this.version = version;
+      this.checksums = checksums;
+      this.pool = pool;
+      this.tables = tables;
+      this.payload = pool.acquire(0);
+    }
+
+    void release() {
+      pool.release(payload);
+      payload = null;
+    }
+
+    // Reads a block or group length: an int in version 1 streams, a varint
+    // after that.
+    int readLength() throws IOException {
+      if (version == 1) {
+        return in.readInt();
+      }
+      long value = readVarint(in);
+      if (value > Integer.MAX_VALUE) {
+        throw new IOException(
+          String.format("Block %d: length out of range: %d", blockNumber, value));
+      }
+      return (int) value;
+    }
+
+    // Decodes the block of `type` whose header follows into `dest` at
+    // `offset`, and returns its length, which must not exceed `maxLength`.
+    int readBlock(int type, byte[] dest, int offset, int maxLength)
+        throws IOException {
+      int length = readLength();
+      int payloadLength = readLength();
+      if (length < 1 || length > maxLength || payloadLength < 0
+          || payloadLength > length + MAX_PAYLOAD_OVERHEAD) {
+        throw new IOException(
+          String.format("Block %d: invalid lengths", blockNumber));
+      }
+      if (payload.length < payloadLength) {
+        pool.release(payload);
+        payload = pool.acquire(payloadLength);
+      }
+      in.readFully(payload, 0, payloadLength);
+      SymbolCoder table = null;
+      if ((type & BLOCK_REPEAT_TABLE) != 0) {
+        int base = type & ~BLOCK_REPEAT_TABLE;
+        if (base != BLOCK_HUFFMAN && base != BLOCK_HUFFMAN4) {
+          throw new IOException(
+            String.format("Block %d: unknown type %d", blockNumber, type));
+        }
+        if (previous == null) {
+          throw new IOException(
+            String.format("Block %d: no code table to repeat", blockNumber));
+        }
+        table = previous;
+        type = base;
+      }
+      if (type == BLOCK_HUFFMAN) {
+        previous = decodeBlock(payload, payloadLength, dest, offset, length,
+                               table, tables);
+      } else if (type == BLOCK_STORED) {
+        if (payloadLength != length) {
+          throw new IOException(
+            String.format("Block %d: stored length mismatch", blockNumber));
+        }
+        System.arraycopy(payload, 0, dest, offset, length);
+      } else if (type == BLOCK_SINGLE) {
+        if (payloadLength != 1) {
+          throw new IOException(
+            String.format("Block %d: bad single-symbol payload", blockNumber));
+        }
+        Arrays.fill(dest, offset, offset + length, payload[0]);
+      } else if (type == BLOCK_TWO) {
+        if (payloadLength != 2 + (length + 7) / 8) {
+          throw new IOException(
+            String.format("Block %d: bad two-symbol payload", blockNumber));
+        }
+        decodeTwoSymbols(payload, dest, offset, length);
+      } else if (type == BLOCK_HUFFMAN16) {
+        decodeBlock16(payload, payloadLength, dest, offset, length, tables);
+      } else if (type == BLOCK_HUFFMAN4) {
+        previous = decodeBlock4(payload, payloadLength, dest, offset, length,
+                                table, tables);
+      } else if (type == BLOCK_ORDER1) {
+        ContextCoder.decode(payload, payloadLength, dest, offset, length, tables);
+      } else if (type == BLOCK_LZ) {
+        LzCodec.decode(payload, payloadLength, dest, offset, length, tables);
+      } else {
+        throw new IOException(
+          String.format("Block %d: unknown type %d", blockNumber, type));
+      }
+      if (checksums) {
+        blockCrc.reset();
+        blockCrc.update(dest, offset, length);
+        if (in.readInt() != (int) blockCrc.getValue()) {
+          throw new IOException(
+            String.format("Block %d: checksum mismatch", blockNumber));
+        }
+      }
+      blockNumber++;
+      return length;
+    }
+  }
+}
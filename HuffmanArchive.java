@@ -0,0 +1,495 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+// Many files in one container, each compressed as its own FramedCodec
+// stream, so that a large set of small inputs becomes one file on disk
+// rather than one `.huff` per input.
+//
+// Layout:
+//   header     int MAGIC ("HUFA"), byte VERSION
+//   members    the framed streams, back to back
+//   directory  varint entry count; per entry the name (as writeUTF), then
+//              varints for the member's offset, compressed length and
+//              original length, then an int CRC32C of the original bytes
+//   trailer    long offset of the directory, int CRC32C of the directory,
+//              int MAGIC
+//
+// The fixed-size trailer lets a reader find the directory with one read
+// from the end, and through it any member, without scanning the others.
+// Each extraction reads its member through a channel of its own, so several
+// can run at once, and an interrupt, which closes the channel it lands on,
+// only stops the extraction it was meant for.
+public class HuffmanArchive implements Closeable {
+  public static final int MAGIC = 0x48554641; // "HUFA"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 5;
+  public static final int TRAILER_SIZE = 16;
+  // Members at least this large are compressed straight into the archive
+  // on the writing thread, with the codec's own threads working on their
+  // blocks, rather than whole in memory on one of the member workers.
+  public static final long LARGE_MEMBER = 16 * 1024 * 1024;
+
+  private static final String TEMP_SUFFIX = ".part";
+
+  private final Path archive;
+  private final List<Entry> entries;
+  private final Map<String, Entry> byName = new HashMap<String, Entry>();
+
+  private volatile boolean closed;
+
+  private HuffmanArchive(Path archive, List<Entry> entries) {
+    this.archive = archive;
+    this.entries = Collections.unmodifiableList(entries);
+    for (Entry entry : entries) {
+      byName.put(entry.name, entry);
+    }
+  }
+
+  // Compresses `inputs` into a new archive at `archive` and returns its
+  // entries. Directories are walked and every regular file under them
+  // added, in name order. Members are named by their path as given, with
+  // '/' separators and any root or leading "./" dropped.
+  //
+  // Members below LARGE_MEMBER are compressed `options.getThreads()` at a
+  // time, each on one thread; larger ones one at a time with all threads.
+  // Members are written in input order, so the archive doesn't depend on
+  // the thread count. The archive is written under a temporary name and
+  // renamed into place once complete.
+  public static List<Entry> create(Path archive, List<Path> inputs,
+                                   CodecOptions options) throws IOException {
+    List<Path> files = new ArrayList<Path>();
+    for (Path input : inputs) {
+      if (Files.isDirectory(input)) {
+        try (Stream<Path> walk = Files.walk(input)) {
+          walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+        }
+      } else {
+        files.add(input);
+      }
+    }
+    Set<String> names = new HashSet<String>();
+    for (Path file : files) {
+      if (!names.add(memberName(file))) {
+        throw new IllegalArgumentException(
+          String.format("Duplicate member name: %s", memberName(file)));
+      }
+    }
+
+    int workers = options.getThreads();
+    FramedCodec small = new FramedCodec(options.copy().threads(1));
+    FramedCodec large = new FramedCodec(options);
+    Path temp = archive.resolveSibling(archive.getFileName() + TEMP_SUFFIX);
+    List<Entry> entries = new ArrayList<Entry>(files.size());
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    try {
+      try (CountingOutputStream counted = new CountingOutputStream(
+             new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+        DataOutputStream out = new DataOutputStream(counted);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        Deque<Future<Member>> pending = new ArrayDeque<Future<Member>>();
+        for (Path file : files) {
+          if (Files.size(file) >= LARGE_MEMBER) {
+            while (!pending.isEmpty()) {
+              entries.add(await(pending.remove()).writeTo(counted));
+            }
+            entries.add(compressLarge(large, file, counted));
+            continue;
+          }
+          pending.add(pool.submit(() -> compressSmall(small, file)));
+          if (pending.size() >= 2 * workers) {
+            entries.add(await(pending.remove()).writeTo(counted));
+          }
+        }
+        while (!pending.isEmpty()) {
+          entries.add(await(pending.remove()).writeTo(counted));
+        }
+        writeDirectory(out, counted.count(), entries);
+      }
+      BatchEncoder.moveIntoPlace(temp, archive);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    } finally {
+      pool.shutdownNow();
+    }
+    return entries;
+  }
+
+  // The name `file` is stored under.
+  static String memberName(Path file) {
+    Path path = file.normalize();
+    if (path.getRoot() != null) {
+      path = path.getRoot().relativize(path);
+    }
+    String name = path.toString().replace(File.separatorChar, '/');
+    if (name.isEmpty() || name.equals("..") || name.startsWith("../")) {
+      throw new IllegalArgumentException(
+        String.format("Can't name a member after %s", file));
+    }
+    return name;
+  }
+
+  // Compresses a small file whole into memory.
+  private static Member compressSmall(FramedCodec codec, Path file)
+      throws IOException {
+    byte[] data = Files.readAllBytes(file);
+    CRC32C crc = new CRC32C();
+    crc.update(data, 0, data.length);
+    ByteArrayOutputStream compressed =
+      new ByteArrayOutputStream(data.length / 2 + 64);
+    codec.compress(new ByteArrayInputStream(data), compressed);
+    return new Member(memberName(file), data.length, (int) crc.getValue(),
+                      compressed);
+  }
+
+  // Compresses a large file straight into the archive at its current end.
+  private static Entry compressLarge(FramedCodec codec, Path file,
+                                     CountingOutputStream out)
+      throws IOException {
+    long offset = out.count();
+    long size = 0;
+    CRC32C crc = new CRC32C();
+    try (CheckedInputStream in = new CheckedInputStream(
+           new BufferedInputStream(Files.newInputStream(file), 1024 * 1024), crc)) {
+      CountingInputStream counted = new CountingInputStream(in);
+      codec.compress(counted, out);
+      size = counted.count();
+    }
+    return new Entry(memberName(file), offset, out.count() - offset, size,
+                     (int) crc.getValue());
+  }
+
+  private static void writeDirectory(DataOutputStream out, long offset,
+                                     List<Entry> entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream directory = new DataOutputStream(bytes);
+    FramedCodec.writeVarint(directory, entries.size());
+    for (Entry entry : entries) {
+      directory.writeUTF(entry.name);
+      FramedCodec.writeVarint(directory, entry.offset);
+      FramedCodec.writeVarint(directory, entry.compressedSize);
+      FramedCodec.writeVarint(directory, entry.size);
+      directory.writeInt(entry.crc);
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(bytes.toByteArray(), 0, bytes.size());
+    bytes.writeTo(out);
+    out.writeLong(offset);
+    out.writeInt((int) crc.getValue());
+    out.writeInt(MAGIC);
+  }
+
+  // Opens an archive and reads its directory.
+  public static HuffmanArchive open(Path archive) throws IOException {
+    try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE + TRAILER_SIZE) {
+        throw new IOException(String.format("%s: not an archive", archive));
+      }
+      ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC) {
+        throw new IOException(String.format("%s: not an archive", archive));
+      }
+      if (header.get() != VERSION) {
+        throw new IOException(
+          String.format("%s: unsupported archive version", archive));
+      }
+      ByteBuffer trailer = readFully(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+      long directoryOffset = trailer.getLong();
+      int directoryCrc = trailer.getInt();
+      if (trailer.getInt() != MAGIC || directoryOffset < HEADER_SIZE
+          || directoryOffset > size - TRAILER_SIZE
+          || size - TRAILER_SIZE - directoryOffset > Integer.MAX_VALUE) {
+        throw new IOException(String.format("%s: corrupt trailer", archive));
+      }
+      ByteBuffer directory = readFully(
+        channel, directoryOffset, (int) (size - TRAILER_SIZE - directoryOffset));
+      CRC32C crc = new CRC32C();
+      crc.update(directory.array(), 0, directory.limit());
+      if ((int) crc.getValue() != directoryCrc) {
+        throw new IOException(
+          String.format("%s: directory checksum mismatch", archive));
+      }
+      List<Entry> entries = readDirectory(
+        new DataInputStream(new ByteArrayInputStream(directory.array())),
+        directoryOffset, archive);
+      return new HuffmanArchive(archive, entries);
+    }
+  }
+
+  private static List<Entry> readDirectory(DataInputStream in, long limit,
+                                           Path archive) throws IOException {
+    long count = FramedCodec.readVarint(in);
+    if (count > in.available()) {
+      throw new IOException(String.format("%s: corrupt directory", archive));
+    }
+    List<Entry> entries = new ArrayList<Entry>((int) count);
+    for (long i = 0; i < count; i++) {
+      String name = in.readUTF();
+      long offset = FramedCodec.readVarint(in);
+      long compressedSize = FramedCodec.readVarint(in);
+      long size = FramedCodec.readVarint(in);
+      int crc = in.readInt();
+      if (offset < HEADER_SIZE || compressedSize > limit - offset) {
+        throw new IOException(
+          String.format("%s: member %s lies outside the archive", archive,
+                        name));
+      }
+      entries.add(new Entry(name, offset, compressedSize, size, crc));
+    }
+    return entries;
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position,
+                                      int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  public List<Entry> entries() {
+    return entries;
+  }
+
+  // The entry stored under `name`, or null.
+  public Entry entry(String name) {
+    return byName.get(name);
+  }
+
+  // Decompresses one member into `out` and checks its length and CRC.
+  // Reads only that member's bytes; safe to call from several threads.
+  public void extract(Entry entry, OutputStream out) throws IOException {
+    if (closed) {
+      throw new IOException("Archive closed");
+    }
+    CRC32C crc = new CRC32C();
+    CountingOutputStream counted =
+      new CountingOutputStream(new CheckedOutputStream(out, crc));
+    try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+      InputStream in = new BufferedInputStream(
+        new ChannelSlice(channel, entry.offset, entry.compressedSize), 64 * 1024);
+      new FramedCodec().decompress(in, counted);
+    }
+    counted.flush();
+    if (counted.count() != entry.size || (int) crc.getValue() != entry.crc) {
+      throw new IOException(
+        String.format("%s: checksum mismatch", entry.name));
+    }
+  }
+
+  // Extracts the named members, or all of them if `names` is empty, into
+  // files under `destDir`, `workers` at a time. Each file is written under
+  // a temporary name and renamed into place once checked.
+  public void extractAll(Path destDir, Collection<String> names, int workers)
+      throws IOException {
+    if (workers < 1) {
+      throw new IllegalArgumentException(
+        String.format("Worker count must be positive: %d", workers));
+    }
+    List<Entry> selected = new ArrayList<Entry>();
+    if (names.isEmpty()) {
+      selected.addAll(entries);
+    } else {
+      for (String name : names) {
+        Entry entry = byName.get(name);
+        if (entry == null) {
+          throw new IOException(String.format("%s: no such member", name));
+        }
+        selected.add(entry);
+      }
+    }
+    Path root = destDir.toAbsolutePath().normalize();
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+      for (Entry entry : selected) {
+        Path target = root.resolve(entry.name).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+          throw new IOException(
+            String.format("%s: member name escapes the destination",
+                          entry.name));
+        }
+        tasks.add(pool.submit(() -> {
+          extractTo(entry, target);
+          return null;
+        }));
+      }
+      for (Future<Void> task : tasks) {
+        await(task);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void extractTo(Entry entry, Path target) throws IOException {
+    Files.createDirectories(target.getParent());
+    Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+    try {
+      try (OutputStream out = new BufferedOutputStream(
+             Files.newOutputStream(temp), 64 * 1024)) {
+        extract(entry, out);
+      }
+      BatchEncoder.moveIntoPlace(temp, target);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+  }
+
+  public void close() {
+    closed = true;
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // A directory entry: where a member's framed stream lies in the archive,
+  // and the length and CRC32C of what it decompresses to.
+  public static class Entry {
+    public final String name;
+    public final long offset;
+    public final long compressedSize;
+    public final long size;
+    public final int crc;
+
+    Entry(String name, long offset, long compressedSize, long size, int crc) {
+      this.name = name;
+      this.offset = offset;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.crc = crc;
+    }
+
+    public String toString() {
+      return String.format("%12d %12d  %08x  %s", size, compressedSize, crc,
+                           name);
+    }
+  }
+
+  // A small member compressed in memory, waiting for its turn to be
+  // written.
+  private static final class Member {
+    final String name;
+    final long size;
+    final int crc;
+    final ByteArrayOutputStream compressed;
+
+    Member(String name, long size, int crc, ByteArrayOutputStream compressed) {
+      this.name = name;
+      this.size = size;
+      this.crc = crc;
+      this.compressed = compressed;
+    }
+
+    Entry writeTo(CountingOutputStream out) throws IOException {
+      long offset = out.count();
+      compressed.writeTo(out);
+      return new Entry(name, offset, compressed.size(), size, crc);
+    }
+  }
+
+  private static final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    public void write(byte[] b, int offset, int length) throws IOException {
+      out.write(b, offset, length);
+      count += length;
+    }
+
+    long count() {
+      return count;
+    }
+  }
+
+  private static final class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    public int read() throws IOException {
+      int b = in.read();
+      count += (b < 0) ? 0 : 1;
+      return b;
+    }
+
+    public int read(byte[] b, int offset, int length) throws IOException {
+      int n = in.read(b, offset, length);
+      count += Math.max(n, 0);
+      return n;
+    }
+
+    long count() {
+      return count;
+    }
+  }
+
+  // `length` bytes of a channel from `position` on.
+  private static final class ChannelSlice extends InputStream {
+    private final FileChannel channel;
+    private long position;
+    private long remaining;
+
+    ChannelSlice(FileChannel channel, long position, long length) {
+      this.channel = channel;
+      this.position = position;
+      this.remaining = length;
+    }
+
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF;
+    }
+
+    public int read(byte[] b, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (remaining == 0) {
+        return -1;
+      }
+      int n = channel.read(
+        ByteBuffer.wrap(b, offset, (int) Math.min(length, remaining)), position);
+      if (n < 0) {
+        throw new EOFException("Archive truncated");
+      }
+      position += n;
+      remaining -= n;
+      return n;
+    }
+  }
+}
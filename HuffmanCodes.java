@@ -1,15 +1,15 @@
 import java.util.*;
 import java.lang.*;
 import java.io.*;
+import java.nio.file.*;
 
 public class HuffmanCodes {
-  private Node rootNode;
-  private PriorityQueue<Node> forest;
+  private CodeTree tree;
   private Map<Byte, Integer> byteMap;
   private Map<Byte, String> codeMap;
-  private Map<String, Byte> decodeMap;
   private BitInputStream input;
   private BitOutputStream output;
+  private boolean verbose = true;
 
   public void countFrequencies(byte[] data) {
     byteMap = new HashMap<Byte, Integer>();
@@ -22,40 +22,34 @@ public class HuffmanCodes {
     }
   }
 
-  public void buildForest() {
-    //System.out.println(byteMap.size());
-    forest = new PriorityQueue<Node>(byteMap.size());
+  public void buildTree() {
+    long[] counts = new long[256];
     for (Map.Entry<Byte, Integer> entry : byteMap.entrySet()) {
-      ValueNode addNode = new ValueNode(entry.getKey(), entry.getValue());
-      //System.out.println(entry.getKey() + " " + entry.getValue());
-      forest.add(addNode);
+      counts[entry.getKey() & 0xFF] = entry.getValue();
     }
+    tree = CodeTree.build(counts);
   }
 
-  public void buildTree() {
-    buildForest();
-    //System.out.println(forest.size());
-    while (forest.size() > 1) {
-      //System.out.println("AddingNodeToTree");
-      Node right = forest.remove();
-      Node left = forest.remove();      
-      if (right instanceof ValueNode) {
-        ValueNode test = (ValueNode) right;
-        //System.out.println(test.printNode());
-      }
-      if (left instanceof ValueNode) {
-        ValueNode test = (ValueNode) left;
-        //System.out.println(test.printNode());
+  public CodeTree getTree() {
+    return tree;
+  }
+
+  // Derives the code table from the tree built by `buildTree` and keeps it
+  // for `byteSize`.
+  public Map<Byte, String> buildCodes() {
+    codeMap = new HashMap<Byte, String>();
+    for (int s = 0; s < 256; s++) {
+      if (tree.contains(s)) {
+        codeMap.put((byte) s, tree.codeString(s));
       }
-      DecisionNode nodeToAdd = new DecisionNode(left, right);
-      nodeToAdd.setCount(left.getCount() + right.getCount());
-      forest.add(nodeToAdd);
     }
-    rootNode = forest.remove();
+    return codeMap;
   }
 
-  public Node getRoot() {
-    return rootNode;
+  // Turns the debugging dumps in `encode` on or off. Batch callers switch
+  // them off so that thousands of files don't interleave on stdout.
+  public void setVerbose(boolean verbose) {
+    this.verbose = verbose;
   }
 
   public void encode(String fileIn, String fileOut) throws IOException {
@@ -74,43 +68,46 @@ public class HuffmanCodes {
     try {
       this.output = new BitOutputStream(outFile);
     } catch (FileNotFoundException e) {System.out.println("Error");}
-    codeMap = rootNode.getAllCodes();
+    buildCodes();
     byte[] byteArray = input.allBytes();
-    output.writeInt(byteSize());
-    int messageByteSize = byteSize();
-    messageSizeString += Integer.toBinaryString(messageByteSize);
-    String codeTreeString = writeTree(output, rootNode);
+    long messageByteSize = byteSize();
+    if (messageByteSize > Integer.MAX_VALUE) {
+      output.close();
+      throw new IOException(String.format(
+        "%s: %d code bits overflow the 32-bit header; use --compress",
+        fileIn, messageByteSize));
+    }
+    output.writeInt((int) messageByteSize);
+    messageSizeString += Long.toBinaryString(messageByteSize);
+    String codeTreeString = writeTree(output, tree, verbose);
     //System.out.println(byteArray[5]);
-    System.out.println(codeMap.size());
+    if (verbose) {
+      System.out.println(codeMap.size());
+    }
     for (int i = 0; i < byteArray.length; i++) {
-      if (codeMap.containsKey(byteArray[i])) {
-        String code = codeMap.get(byteArray[i]);
-        for (int j = 0; j < code.length(); j ++) {
-          if (code.substring(j, j+1).equals("1")) {
-            try {
-              stringPrint += "1";
-              output.writeBit(1);
-            } catch (IOException e) {
-                System.out.println("Error");
-              }
-          } else {
-            try {
-              stringPrint += "0";
-              output.writeBit(0);
-            } catch (IOException e) {
-                System.out.println("Error");
-              }
+      int symbol = byteArray[i] & 0xFF;
+      long code = tree.code(symbol);
+      for (int j = tree.length(symbol) - 1; j >= 0; j--) {
+        int bit = (int) (code >>> j) & 1;
+        try {
+          if (verbose) {
+            stringPrint += bit;
           }
-        }
-      }  
+          output.writeBit(bit);
+        } catch (IOException e) {
+            System.out.println("Error");
+          }
+      }
     }
     input.close();
     output.close();
 
-    System.out.println(messageSizeString + " " + codeTreeString + " " + stringPrint);
-    printCodes();
-    String testString = "0001010110010001011011111110010111101100";
-    System.out.println(testString.equals(codeTreeString));
+    if (verbose) {
+      System.out.println(messageSizeString + " " + codeTreeString + " " + stringPrint);
+      printCodes();
+      String testString = "0001010110010001011011111110010111101100";
+      System.out.println(testString.equals(codeTreeString));
+    }
   }
 
   public void decode(String fileIn, String fileOut) throws IOException {
@@ -134,113 +131,57 @@ public class HuffmanCodes {
     bitsRead += 32;
     System.out.println(bitsRead);
     try {
-      if (input.readBit() == 0) {
-        System.out.println("ReadBit() == 0");
-        bitsRead++;
-        System.out.println(bitsRead);
-        DecisionNode tempNode = new DecisionNode();
-        try {
-          bitsRead += tempNode.remakeTree(input);
-          System.out.println(bitsRead);
-        } catch (IOException e) {System.out.println("Error");}
-        rootNode = tempNode;
-      } else {
-        System.out.println("ReadBit() == 1");
-        bitsRead += 9;
-        System.out.println(bitsRead);
-        rootNode = new ValueNode((byte)input.readByte());
-      }
+      tree = CodeTree.read(input);
+      bitsRead += 10 * tree.decisionNodes() + 9;
+      System.out.println(bitsRead);
     } catch (IOException e) {System.out.println("Error");}
-    decodeMap = reverseByteMap(rootNode.getAllCodes());
-    System.out.println(bitsRead);
-    String currByte = "";
     System.out.println("fileSize: " + fileSize);
     System.out.println(bitsRead);
-    while (bitsRead < fileSize) {
+    // A lone leaf has the empty code, so there are no code bits to walk.
+    int node = tree.root();
+    while (!CodeTree.isLeaf(tree.root()) && bitsRead < fileSize) {
       System.out.println(bitsRead);
       bitsRead++;
-      if (input.readBit() == 0) {
-        currByte += "0";
-      } else {
-        currByte += "1";
-      }
-      if (decodeMap.containsKey(currByte)) {
-        output.writeByte(decodeMap.get(currByte));
-        currByte = "";
+      node = tree.child(node, input.readBit());
+      if (CodeTree.isLeaf(node)) {
+        output.writeByte(CodeTree.symbol(node));
+        node = tree.root();
       }
     }
     input.close();
     output.close();
   }
   
-  public int byteSize() { 
-    int bitCount = 0;
+  // Number of code bits in the message. Summed in a long: at code lengths
+  // of 8 or more, inputs past 256 MB overflow an int.
+  public long byteSize() { 
+    long bitCount = 0;
       for (Map.Entry<Byte, Integer> entry : this.byteMap.entrySet()) {
-        bitCount += (entry.getValue() * this.codeMap.get(entry.getKey()).length());
+        bitCount += ((long) entry.getValue()
+                     * this.tree.length(entry.getKey() & 0xFF));
       }
       return bitCount;
   }
 
-  public static String writeTree(BitOutputStream outStream, Node root) {
+  public static String writeTree(BitOutputStream outStream, CodeTree tree) {
+    return writeTree(outStream, tree, true);
+  }
+
+  public static String writeTree(BitOutputStream outStream, CodeTree tree,
+                                 boolean verbose) {
     String stringToReturn = "";
     try {
-      if (outStream.tally() == 32) {
-      //outStream.writeBit(0);
-      
-      }
-      if (root instanceof DecisionNode) {
-        DecisionNode decNode = (DecisionNode)root;
-        stringToReturn += "0";
-        System.out.println("DecisionNode: adding: 0");
-        outStream.writeBit(0);
-        stringToReturn += writeTree(outStream, decNode.getLeft());
-        stringToReturn += writeTree(outStream, decNode.getRight());
-      } else {
-        stringToReturn += "1";
-        System.out.println("ValueNode: adding: 1");
-        outStream.writeBit(1);
-        ValueNode valNode = (ValueNode)root;
-        outStream.writeByte(valNode.getValue());
-
-      }
-
-
-
-
-
-        /*if (decNode.getLeft() instanceof DecisionNode) {
-          DecisionNode decNodeLeft = (DecisionNode)decNode.getLeft();
-          stringToReturn += "0";
+      stringToReturn = tree.write(outStream);
+    } catch (IOException e) {System.out.println("Error");}
+    if (verbose) {
+      for (int i = 0; i < stringToReturn.length(); i++) {
+        if (stringToReturn.charAt(i) == '0') {
           System.out.println("DecisionNode: adding: 0");
-          outStream.writeBit(0);
-          stringToReturn += writeTree(outStream, decNodeLeft);
-        } else {
-          stringToReturn += "0";
-          ValueNode decNodeLeft = (ValueNode)decNode.getLeft();
-          System.out.println("ValueNode: adding: 0");
-          outStream.writeBit(0);
-          Integer byteValue = (int)decNodeLeft.getValue();
-          stringToReturn += Integer.toBinaryString(byteValue);
-          System.out.println("Adding byte: " + Integer.toBinaryString(byteValue));
-          outStream.writeByte(decNodeLeft.getValue());
-        }
-        if (decNode.getRight() instanceof DecisionNode) {
-          DecisionNode decNodeRight = (DecisionNode)decNode.getRight();
-          stringToReturn += "1";
-          System.out.println("DecisionNode: adding: 1");
-          outStream.writeBit(1);
-          stringToReturn += writeTree(outStream, decNodeRight);
         } else {
-          stringToReturn += "1";
-          ValueNode decNodeRight = (ValueNode)decNode.getRight();
           System.out.println("ValueNode: adding: 1");
-          outStream.writeBit(1);
-          Integer byteValue = (int)decNodeRight.getValue();
-          stringToReturn += Integer.toBinaryString(byteValue);
-          System.out.println("Adding byte: " + Integer.toBinaryString(byteValue));
-          outStream.writeByte(decNodeRight.getValue());
-        }*/
-    } catch (IOException e) {System.out.println("Error");}
+        }
+      }
+    }
     return stringToReturn;
   }
 
@@ -252,184 +193,258 @@ public class HuffmanCodes {
     }
   } 
 
-  public static Map<String, Byte> reverseByteMap(Map<Byte, String> inputMap) {
-    Map<String, Byte> mapToReturn = new HashMap<String, Byte>();
-    for (Map.Entry<Byte, String> entry : inputMap.entrySet()) {
-      mapToReturn.put(entry.getValue(), entry.getKey());
+  // Entry point for the block-framed format:
+  //   --compress [--checksum] [--level=1-9] [--rle] [--bwt] [--lz[=LEVEL]]
+  //              [--threads=N] [--symbols=8|16] [--order1] [--streams=1|4]
+  //              [--block-size=N] [--min-gain=F] [--io-buffers=N]
+  //              [--io-buffer-size=N] IN OUT
+  //   --decompress IN OUT
+  //   --verify IN
+  private static void runFramed(String[] args) {
+    String mode = args[0];
+    List<String> rest = new ArrayList<String>(
+      Arrays.asList(args).subList(1, args.length));
+    try {
+      FramedCodec codec = new FramedCodec(CodecOptions.parse(rest));
+      int needed = mode.equals("--verify") ? 1 : 2;
+      if (rest.size() != needed) {
+        System.err.println("Usage: HuffmanCodes " + mode + " [Options...] "
+                           + (needed == 1 ? "IN" : "IN OUT"));
+        System.exit(1);
+      }
+      if (mode.equals("--verify")) {
+        codec.verify(rest.get(0));
+        System.out.println("OK");
+      } else if (mode.equals("--compress")) {
+        codec.compress(rest.get(0), rest.get(1));
+      } else {
+        codec.decompress(rest.get(0), rest.get(1));
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
     }
-    return mapToReturn;
   }
-  
-  public abstract class Node implements Comparable {
-    protected int count;
 
-    public Node () {
-      count = 0;
+  // Prints the size `encode` would produce for a file, counting only
+  // `--sample=F` of it if given:
+  //   --estimate [--sample=F] IN
+  private static void runEstimate(String[] args) {
+    double fraction = 1.0;
+    String file = null;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--sample=")) {
+        fraction = Double.parseDouble(args[i].substring("--sample=".length()));
+      } else if (file == null) {
+        file = args[i];
+      } else {
+        file = null;
+        break;
+      }
     }
-
-    public Node (int input) {
-      count = input;
+    if (file == null) {
+      System.err.println("Usage: HuffmanCodes --estimate [--sample=F] IN");
+      System.exit(1);
     }
-
-    public final Map<Byte, String> getAllCodes() {
-      Map<Byte, String> codeTable = new HashMap<Byte, String>();
-      this.putCodes(codeTable, "");
-      return codeTable;
+    try {
+      System.out.println(SizeEstimator.estimate(Paths.get(file), fraction));
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
     }
+  }
 
-    public abstract void putCodes(Map<Byte, String> table, String bits);
-
-    @Override
-    public int compareTo(Object node) {
-      Node inputNode = (Node)node;
-      if (node == null) {
-        throw new NullPointerException();
+  // Entry point for multi-file archives:
+  //   --archive [compress options] ARCHIVE INPUT...
+  //   --list ARCHIVE
+  //   --extract [--threads=N] ARCHIVE DEST [MEMBER...]
+  // Directories given as inputs are added recursively. With --archive,
+  // --threads sets how many members are compressed at once.
+  private static void runArchive(String[] args) {
+    String mode = args[0];
+    List<String> rest = new ArrayList<String>(
+      Arrays.asList(args).subList(1, args.length));
+    try {
+      CodecOptions options = CodecOptions.parse(rest);
+      int needed = mode.equals("--list") ? 1 : 2;
+      if (rest.size() < needed || (mode.equals("--list") && rest.size() > 1)) {
+        System.err.println("Usage: HuffmanCodes " + mode + " [Options...] "
+                           + (mode.equals("--list") ? "ARCHIVE"
+                              : mode.equals("--archive") ? "ARCHIVE INPUT..."
+                              : "ARCHIVE DEST [MEMBER...]"));
+        System.exit(1);
       }
-      if (!(this instanceof Node)) {
-        throw new ClassCastException();
+      Path archive = Paths.get(rest.get(0));
+      if (mode.equals("--archive")) {
+        List<Path> inputs = new ArrayList<Path>();
+        for (String input : rest.subList(1, rest.size())) {
+          inputs.add(Paths.get(input));
+        }
+        HuffmanArchive.create(archive, inputs, options);
+        return;
       }
-      if (count > inputNode.getCount()) {
-        return 1;
-      } else if (count == inputNode.getCount()) {
-        return 0;
-      } else {
-        return -1;
+      try (HuffmanArchive opened = HuffmanArchive.open(archive)) {
+        if (mode.equals("--list")) {
+          for (HuffmanArchive.Entry entry : opened.entries()) {
+            System.out.println(entry);
+          }
+        } else {
+          opened.extractAll(Paths.get(rest.get(1)),
+                            rest.subList(2, rest.size()), options.getThreads());
+        }
       }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
     }
-
-    public int getCount() {
-      return count;
-    }
-
-    public void setCount(int input) {
-      count = input;
-    }
-    //public int compareTo(Node that);
-    //public final Map<Byte, String> getAllCodes();
-    //protected abstract void putCodes(Map<Byte, String> table, String bits);
   }
 
-  public class DecisionNode extends Node {
-    Node left;
-    Node right;
-
-    public DecisionNode(Node leftInput, Node rightInput) {
-      left = leftInput;
-      right = rightInput;
-    }
-
-    public DecisionNode() {
-      left = null;
-      right = null;
-    }
-
-    public void putCodes(Map<Byte, String> table, String bits) {
-      left.putCodes(table, bits + "0");
-      right.putCodes(table, bits + "1");
-    }
-
-    public Node getRight() {
-      return right;
-    }
-
-    public Node getLeft() {
-      return left;
-    }
-
-    public void setLeft(Node input) {
-      this.left = input;
-    }
-
-    public void setRight(Node input) {
-      this.right = input;
+  // Entry points for the compression daemon and its client:
+  //   --daemon [--socket=PATH]
+  //   --client [--socket=PATH] --compress|--decompress [compress options]
+  //            IN OUT [IN OUT...]
+  private static void runDaemon(String[] args) {
+    Path socket = CompressionDaemon.defaultSocket();
+    String op = null;
+    List<String> flags = new ArrayList<String>();
+    List<Path> files = new ArrayList<Path>();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--socket=")) {
+        socket = Paths.get(args[i].substring("--socket=".length()));
+      } else if (args[i].equals("--compress") || args[i].equals("--decompress")) {
+        op = args[i];
+      } else if (args[i].startsWith("--")) {
+        flags.add(args[i]);
+      } else {
+        files.add(Paths.get(args[i]));
+      }
     }
-
-    public String printNode() {
-      String stringToReturn = "";
-      if (left == null) {
-        stringToReturn += "LeftNull ";
-      } else if (left instanceof ValueNode) {
-        stringToReturn += "LeftValue";
+    try {
+      if (args[0].equals("--daemon")) {
+        if (op != null || !flags.isEmpty() || !files.isEmpty()) {
+          System.err.println("Usage: HuffmanCodes --daemon [--socket=PATH]");
+          System.exit(1);
+        }
+        CompressionDaemon daemon = new CompressionDaemon(socket);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try {
+            daemon.close();
+          } catch (IOException e) {
+            /* exiting anyway */
+          }
+        }));
+        daemon.serve();
+        return;
+      }
+      if (op == null || files.isEmpty() || files.size() % 2 != 0) {
+        System.err.println("Usage: HuffmanCodes --client [--socket=PATH] "
+                           + "--compress|--decompress [Options...] IN OUT...");
+        System.exit(1);
+      }
+      // Rejects bad flags here rather than once per file in the daemon.
+      CodecOptions.parse(new ArrayList<String>(flags));
+      List<Path> inputs = new ArrayList<Path>();
+      List<Path> outputs = new ArrayList<Path>();
+      for (int i = 0; i < files.size(); i += 2) {
+        inputs.add(files.get(i));
+        outputs.add(files.get(i + 1));
       }
-      if (right == null) {
-        stringToReturn += "RightNull ";
-      } else if (right instanceof ValueNode) {
-        stringToReturn += "RightValue";
+      int failures;
+      try (DaemonClient client = new DaemonClient(socket)) {
+        failures = client.run(op.equals("--compress")
+                                ? CompressionDaemon.OP_COMPRESS
+                                : CompressionDaemon.OP_DECOMPRESS,
+                              String.join(" ", flags), inputs, outputs);
       }
-      return stringToReturn;
+      if (failures > 0) {
+        System.exit(1);
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
     }
+  }
 
-    public int remakeTree(BitInputStream input) throws IOException {
-      /*if (input.readBit() == 0) {
-        DecisionNode rootLeft = new DecisionNode();
-        rootLeft.remakeTree(input);
-      } else {
-        ValueNode rootLeft = new ValueNode(input.readByte());
+  // Prints a per-block and overall entropy report for a file, without
+  // compressing it:
+  //   --analyze [--block-size=N] [--format=json|csv] IN
+  private static void runAnalyze(String[] args) {
+    int blockSize = CodecOptions.DEFAULT_BLOCK_SIZE;
+    BlockAnalyzer.Format format = BlockAnalyzer.Format.JSON;
+    String file = null;
+    try {
+      for (int i = 1; i < args.length; i++) {
+        if (args[i].startsWith("--block-size=")) {
+          blockSize = Integer.parseInt(args[i].substring("--block-size=".length()));
+        } else if (args[i].startsWith("--format=")) {
+          format = BlockAnalyzer.Format.valueOf(
+            args[i].substring("--format=".length()).toUpperCase(Locale.ROOT));
+        } else if (file == null && !args[i].startsWith("--")) {
+          file = args[i];
+        } else {
+          throw new IllegalArgumentException(
+            String.format("Invalid flag syntax: \"%s\"", args[i]));
+        }
       }
-      if (input.readBit() == 0) {
-        DecisionNode rootRight = new DecisionNode();
-
-      }*/
-
-      int bitNum = 2;
-      if (input.readBit() == 0) {
-        DecisionNode leftDec = new DecisionNode();
-        System.out.println("Adding DecisionNode");
-        bitNum += leftDec.remakeTree(input);
-        this.setLeft(leftDec);
-      } else {
-        System.out.println("Adding ValueNode");
-        bitNum += 8;
-        ValueNode leftVal = new ValueNode((byte)input.readByte());
-        this.setLeft(leftVal);
+      if (file == null) {
+        System.err.println("Usage: HuffmanCodes --analyze [--block-size=N] "
+                           + "[--format=json|csv] IN");
+        System.exit(1);
       }
-      if (input.readBit() == 0) {
-        System.out.println("Adding DecisionNode");
-        DecisionNode rightDec = new DecisionNode();
-        bitNum += rightDec.remakeTree(input);
-        this.setRight(rightDec);
-      } else {
-        System.out.println("Adding ValueNode");
-        bitNum += 8;
-        this.setRight(new ValueNode((byte)input.readByte()));
+      try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+        new BlockAnalyzer(blockSize, format).analyze(in, file, System.out);
       }
-      return bitNum;
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
     }
-
   }
 
-  public class ValueNode extends Node {
-    byte value;
-
-    public ValueNode(byte input) {
-      value = input;
+  public static void main(String[] args) {
+    if (args.length > 0 && (args[0].equals("--daemon")
+                            || args[0].equals("--client"))) {
+      runDaemon(args);
+      return;
     }
-
-    public ValueNode(byte input, int count) {
-      super(count);
-      value = input;
+    if (args.length > 0 && args[0].equals("--analyze")) {
+      runAnalyze(args);
+      return;
     }
-
-    public void putCodes(Map<Byte, String> table, String bits) {
-      table.put(value, bits);
+    if (args.length > 0 && args[0].equals("--estimate")) {
+      runEstimate(args);
+      return;
     }
-
-    public byte getValue() {
-      return value;
+    if (args.length > 0 && (args[0].equals("--archive")
+                            || args[0].equals("--list")
+                            || args[0].equals("--extract"))) {
+      runArchive(args);
+      return;
     }
-
-    public void setValue(byte input) {
-      value = input;
+    if (args.length > 0 && args[0].equals("--batch")) {
+      BatchEncoder.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
     }
-
-    public String printNode() {
-      String stringToReturn = "";
-      stringToReturn += value + " " + super.getCount();
-      return stringToReturn;
+    if (args.length > 0 && (args[0].equals("--compress")
+                            || args[0].equals("--decompress")
+                            || args[0].equals("--verify"))) {
+      runFramed(args);
+      return;
     }
-  }
-
-  public static void main(String[] args) {
     HuffmanCodes test = new HuffmanCodes();
     try {test.decode(args[0], args[1]);}
     catch (IOException e) {System.out.println("Error");}
@@ -0,0 +1,74 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Measures the kernels `Kernels.get()` selects on the given files. Run it
+// once plain and once with `--add-modules jdk.incubator.vector
+// -Dhuffman.vector=true` to compare the scalar and vector versions; each
+// run uses a fresh JVM so neither version's profile skews the other's.
+//
+// Usage: java [--add-modules jdk.incubator.vector -Dhuffman.vector=true]
+//             KernelBenchmark [--iterations=N] FILE...
+public class KernelBenchmark {
+  private static final int WARMUP_ITERATIONS = 20;
+
+  public static void main(String[] args) throws IOException {
+    int iterations = 200;
+    List<Path> files = new ArrayList<Path>();
+    for (String arg : args) {
+      if (arg.startsWith("--iterations=")) {
+        iterations = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+      } else {
+        files.add(Paths.get(arg));
+      }
+    }
+    if (files.isEmpty()) {
+      System.err.println("Usage: KernelBenchmark [--iterations=N] FILE...");
+      System.exit(1);
+    }
+    Kernels kernels = Kernels.get();
+    System.out.println(String.format("%-24s %-16s %14s %14s", "file", "kernels",
+                                     "hist MB/s", "runs MB/s"));
+    for (Path file : files) {
+      byte[] data = Files.readAllBytes(file);
+      if (data.length == 0) {
+        continue;
+      }
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        histogram(kernels, data);
+        runs(kernels, data);
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        histogram(kernels, data);
+      }
+      long middle = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        runs(kernels, data);
+      }
+      long stop = System.nanoTime();
+      System.out.println(String.format("%-24s %-16s %14.1f %14.1f",
+                                       file.getFileName(), kernels.name(),
+                                       rate(data.length, iterations, middle - start),
+                                       rate(data.length, iterations, stop - middle)));
+    }
+  }
+
+  private static int histogram(Kernels kernels, byte[] data) {
+    int[] counts = new int[256];
+    kernels.histogram(data, 0, data.length, counts);
+    return counts[0];
+  }
+
+  private static int runs(Kernels kernels, byte[] data) {
+    int runs = 0;
+    for (int i = 0; i < data.length; runs++) {
+      i += kernels.runLength(data, i, data.length);
+    }
+    return runs;
+  }
+
+  private static double rate(long bytes, int iterations, long nanos) {
+    return (nanos == 0) ? 0.0 : bytes * iterations / (1024.0 * 1024.0) / (nanos / 1e9);
+  }
+}
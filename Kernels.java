@@ -0,0 +1,104 @@
+// Hot inner loops of the framed encoder, behind one interface so that a
+// SIMD version can be swapped in where the JDK supports it.
+//
+// `get()` returns the portable scalar kernels unless the `huffman.vector`
+// system property is "true" and the incubating Vector API module is present
+// (run with `--add-modules jdk.incubator.vector`), in which case it returns
+// VectorKernels. They are opt-in because they only win on long runs of one
+// byte: on text the scalar histogram measured faster (882 against 716 MB/s),
+// so run KernelBenchmark on your own data before turning them on.
+public abstract class Kernels {
+  public static Kernels get() {
+    return Holder.INSTANCE;
+  }
+
+  public static Kernels scalar() {
+    return new Scalar();
+  }
+
+  public abstract String name();
+
+  // Adds the byte counts of `length` bytes of `data` at `offset` to
+  // `counts`, which must have 256 entries.
+  public abstract void histogram(byte[] data, int offset, int length,
+                                 int[] counts);
+
+  // Length of the run of copies of `data[offset]` starting at `offset`,
+  // not extending past `end`.
+  public abstract int runLength(byte[] data, int offset, int end);
+
+  public static class Scalar extends Kernels {
+    public String name() {
+      return "scalar";
+    }
+
+    // Counts into four separate tables so that repeated bytes don't
+    // serialize on a single counter's load-increment-store.
+    public void histogram(byte[] data, int offset, int length, int[] counts) {
+      int[][] tables = new int[4][256];
+      count(data, offset, offset + length, tables);
+      merge(tables, counts);
+    }
+
+    static void count(byte[] data, int start, int end, int[][] tables) {
+      int[] c0 = tables[0];
+      int[] c1 = tables[1];
+      int[] c2 = tables[2];
+      int[] c3 = tables[3];
+      int i = start;
+      for (; i + 4 <= end; i += 4) {
+        c0[data[i] & 0xFF]++;
+        c1[data[i + 1] & 0xFF]++;
+        c2[data[i + 2] & 0xFF]++;
+        c3[data[i + 3] & 0xFF]++;
+      }
+      for (; i < end; i++) {
+        c0[data[i] & 0xFF]++;
+      }
+    }
+
+    static void merge(int[][] tables, int[] counts) {
+      for (int s = 0; s < 256; s++) {
+        counts[s] += tables[0][s] + tables[1][s] + tables[2][s] + tables[3][s];
+      }
+    }
+
+    public int runLength(byte[] data, int offset, int end) {
+      byte value = data[offset];
+      int i = offset + 1;
+      while (i < end && data[i] == value) {
+        i++;
+      }
+      return i - offset;
+    }
+  }
+
+  private static class Holder {
+    static final Kernels INSTANCE = select();
+  }
+
+  private static Kernels select() {
+    if ("true".equals(System.getProperty("huffman.vector"))
+        && hasVectorModule()) {
+      try {
+        return (Kernels) Class.forName("VectorKernels")
+          .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        /* fall through to the scalar kernels */
+      }
+    }
+    return new Scalar();
+  }
+
+  // Looks through the boot layer's modules by hand: `findModule` streams
+  // through the parent layers when the module is missing, and spinning up
+  // those lambdas is a measurable part of a short run's startup.
+  private static boolean hasVectorModule() {
+    for (Module module : ModuleLayer.boot().modules()) {
+      if (module.getName().equals("jdk.incubator.vector")) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
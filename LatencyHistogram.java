@@ -0,0 +1,107 @@
+import java.util.*;
+
+// Records latencies in nanoseconds into log-linear buckets, after the
+// layout of HdrHistogram: exact below 256, and above that 128 buckets per
+// power of two, so that every recorded value is known to within 1% however
+// large it is, in a fixed 60 KB whatever the range or count.
+//
+// Bucket i below 256 holds exactly the value i. Above that, a value v with
+// `m` = (bit length of v) - 8 falls in bucket (m << 7) + (v >>> m), which
+// holds the 2^m values sharing v's top eight bits. Percentiles report the
+// highest value of the bucket they fall in, so they never understate.
+//
+// Recording is not synchronized: give each thread its own histogram and
+// `add` them together afterwards.
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int HALF_BUCKET = 1 << (SUB_BUCKET_BITS - 1);
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 2) * HALF_BUCKET;
+
+  private final long[] counts = new long[BUCKETS];
+  private long total;
+  private long min = Long.MAX_VALUE;
+  private long max;
+  private double sum;
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      throw new IllegalArgumentException(
+        String.format("Latency must not be negative: %d", nanos));
+    }
+    counts[bucketOf(nanos)]++;
+    total++;
+    min = Math.min(min, nanos);
+    max = Math.max(max, nanos);
+    sum += nanos;
+  }
+
+  // Adds everything recorded in `other` to this histogram.
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    total += other.total;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    sum += other.sum;
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0);
+    total = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+    sum = 0;
+  }
+
+  public long count() {
+    return total;
+  }
+
+  public long min() {
+    return (total == 0) ? 0 : min;
+  }
+
+  public long max() {
+    return max;
+  }
+
+  public double mean() {
+    return (total == 0) ? 0.0 : sum / total;
+  }
+
+  // The latency that `percentile` percent of recorded values are at or
+  // below, to within the bucket width; 0 if nothing was recorded.
+  public long percentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException(
+        String.format("Percentile out of range: %s", percentile));
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestIn(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int bucketOf(long value) {
+    int magnitude = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    return (magnitude << (SUB_BUCKET_BITS - 1)) + (int) (value >>> magnitude);
+  }
+
+  private static long highestIn(int bucket) {
+    if (bucket < 2 * HALF_BUCKET) {
+      return bucket;
+    }
+    int magnitude = (bucket >>> (SUB_BUCKET_BITS - 1)) - 1;
+    long lowest = (long) (bucket - (magnitude << (SUB_BUCKET_BITS - 1))) << magnitude;
+    return lowest + (1L << magnitude) - 1;
+  }
+}
@@ -0,0 +1,526 @@
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Drives FramedCodec from many threads at once for a fixed time and reports
+// throughput, latency percentiles and GC and allocation figures, to show how
+// the codec holds up under a service's concurrency rather than in the
+// single-threaded loop CodecBenchmark times.
+//
+// Each client thread picks payloads at random from a fixed set and codes
+// them in memory back to back. Payloads are cut from FILE, or from
+// generated text-like data if none is given, at sizes drawn from the
+// `--sizes` distribution, and are compressed once up front so decompression
+// has input. Calls made during the warm-up are not counted. Each client
+// records its latencies into its own LatencyHistograms, merged at the end.
+// GC counts and times come from the collector MX beans over the measured
+// period; bytes allocated come from the per-thread counters, which the JVM
+// keeps for platform threads only.
+//
+// Usage: java LoadTest [--clients=N] [--virtual] [--duration=S] [--warmup=S]
+//                      [--op=compress|decompress|both] [--sizes=DIST]
+//                      [--payloads=N] [codec flags...] [FILE]
+// where DIST is fixed:SIZE, uniform:MIN-MAX or lognormal:MEDIAN:SIGMA, sizes
+// take an optional k or m suffix, and the codec flags are those of
+// `HuffmanCodes --compress`.
+public class LoadTest {
+  public enum Op { COMPRESS, DECOMPRESS, BOTH }
+
+  public static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+  private static final int GENERATED_SIZE = 8 * 1024 * 1024;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] WORDS = {
+    "the", "of", "and", "to", "in", "a", "is", "that", "for", "it", "as",
+    "with", "was", "on", "be", "by", "block", "tree", "code", "symbol",
+    "stream", "length", "buffer", "table", "header", "frame", "decode",
+    "encode", "huffman", "frequency", "2026-10-19", "INFO", "WARN", "id=",
+    "{\"key\":", "\"value\"}", "0x7f", "42"
+  };
+
+  private int clients = Runtime.getRuntime().availableProcessors();
+  private boolean virtual = false;
+  private double durationSeconds = 10;
+  private double warmupSeconds = 2;
+  private Op op = Op.BOTH;
+  private Sizes sizes = Sizes.parse("uniform:1k-64k");
+  private int payloadCount = 64;
+
+  public LoadTest clients(int clients) {
+    if (clients < 1) {
+      throw new IllegalArgumentException(
+        String.format("Client count must be positive: %d", clients));
+    }
+    this.clients = clients;
+    return this;
+  }
+
+  // Runs each client on a virtual thread instead of a platform thread.
+  public LoadTest virtualThreads(boolean enabled) {
+    this.virtual = enabled;
+    return this;
+  }
+
+  // Measured time, after `warmup`.
+  public LoadTest duration(double seconds) {
+    if (!(seconds > 0)) {
+      throw new IllegalArgumentException(
+        String.format("Duration must be positive: %s", seconds));
+    }
+    this.durationSeconds = seconds;
+    return this;
+  }
+
+  public LoadTest warmup(double seconds) {
+    if (!(seconds >= 0)) {
+      throw new IllegalArgumentException(
+        String.format("Warm-up must not be negative: %s", seconds));
+    }
+    this.warmupSeconds = seconds;
+    return this;
+  }
+
+  public LoadTest op(Op op) {
+    this.op = op;
+    return this;
+  }
+
+  public LoadTest sizes(Sizes sizes) {
+    this.sizes = sizes;
+    return this;
+  }
+
+  // Number of distinct payloads the clients choose from.
+  public LoadTest payloads(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException(
+        String.format("Payload count must be positive: %d", count));
+    }
+    this.payloadCount = count;
+    return this;
+  }
+
+  public static void main(String[] args) {
+    List<String> rest = new ArrayList<String>(Arrays.asList(args));
+    LoadTest test = new LoadTest();
+    try {
+      Iterator<String> it = rest.iterator();
+      while (it.hasNext()) {
+        String arg = it.next();
+        String value = arg.substring(arg.indexOf("=") + 1);
+        if (arg.startsWith("--clients=")) {
+          test.clients(Integer.parseInt(value));
+        } else if (arg.equals("--virtual")) {
+          test.virtualThreads(true);
+        } else if (arg.startsWith("--duration=")) {
+          test.duration(Double.parseDouble(value));
+        } else if (arg.startsWith("--warmup=")) {
+          test.warmup(Double.parseDouble(value));
+        } else if (arg.startsWith("--op=")) {
+          test.op(parseOp(value));
+        } else if (arg.startsWith("--sizes=")) {
+          test.sizes(Sizes.parse(value));
+        } else if (arg.startsWith("--payloads=")) {
+          test.payloads(Integer.parseInt(value));
+        } else {
+          continue;
+        }
+        it.remove();
+      }
+      CodecOptions options = CodecOptions.parse(rest);
+      if (rest.size() > 1) {
+        System.err.println("Usage: LoadTest [--clients=N] [--virtual] [--duration=S]"
+                           + " [--warmup=S] [--op=compress|decompress|both]"
+                           + " [--sizes=DIST] [--payloads=N] [Options...] [FILE]");
+        System.exit(1);
+      }
+      byte[] source = rest.isEmpty() ? generate(GENERATED_SIZE)
+                                     : Files.readAllBytes(Paths.get(rest.get(0)));
+      test.run(new FramedCodec(options), source).print(System.out);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private static Op parseOp(String name) {
+    for (Op op : Op.values()) {
+      if (op.name().equalsIgnoreCase(name)) {
+        return op;
+      }
+    }
+    throw new IllegalArgumentException(
+      String.format("Unknown operation: \"%s\"", name));
+  }
+
+  // Runs the test against `codec` with payloads cut from `source`.
+  public Report run(FramedCodec codec, byte[] source) throws IOException {
+    if (source.length == 0) {
+      throw new IllegalArgumentException("Payload source is empty");
+    }
+    List<Payload> payloads = payloads(codec, source);
+    ExecutorService pool;
+    if (virtual) {
+      pool = BatchEncoder.newVirtualThreadExecutor();
+      if (pool == null) {
+        throw new IllegalArgumentException("Virtual threads need JDK 21 or later");
+      }
+    } else {
+      pool = Executors.newFixedThreadPool(clients);
+    }
+    long start = System.nanoTime();
+    long measureFrom = start + (long) (warmupSeconds * 1e9);
+    long end = measureFrom + (long) (durationSeconds * 1e9);
+    List<Client> running = new ArrayList<Client>();
+    List<Future<?>> done = new ArrayList<Future<?>>();
+    for (int c = 0; c < clients; c++) {
+      Client client = new Client(codec, payloads, c, measureFrom, end);
+      running.add(client);
+      done.add(pool.submit(client));
+    }
+    pool.shutdown();
+    Map<String, long[]> gcBefore;
+    Map<String, long[]> gcAfter;
+    try {
+      sleepUntil(measureFrom);
+      gcBefore = gcTotals();
+      for (Future<?> future : done) {
+        future.get();
+      }
+      gcAfter = gcTotals();
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      throw new IOException("Client failed", e.getCause());
+    }
+
+    Report report = new Report(this, System.nanoTime() - measureFrom);
+    for (Client client : running) {
+      report.compress.add(client.compress);
+      report.decompress.add(client.decompress);
+      report.requests += client.requests;
+      report.bytes += client.bytes;
+      report.errors += client.errors;
+      if (client.allocated < 0) {
+        report.allocated = -1;
+      } else if (report.allocated >= 0) {
+        report.allocated += client.allocated;
+      }
+    }
+    for (Map.Entry<String, long[]> gc : gcAfter.entrySet()) {
+      long[] before = gcBefore.getOrDefault(gc.getKey(), new long[2]);
+      report.gc.put(gc.getKey(), new long[] {
+        gc.getValue()[0] - before[0], gc.getValue()[1] - before[1]});
+    }
+    return report;
+  }
+
+  private List<Payload> payloads(FramedCodec codec, byte[] source)
+      throws IOException {
+    Random random = new Random(payloadCount);
+    List<Payload> payloads = new ArrayList<Payload>();
+    for (int i = 0; i < payloadCount; i++) {
+      int size = sizes.next(random);
+      byte[] data = new byte[size];
+      int offset = (size < source.length) ? random.nextInt(source.length - size + 1) : 0;
+      for (int filled = 0; filled < size; ) {
+        int n = Math.min(size - filled, source.length - offset);
+        System.arraycopy(source, offset, data, filled, n);
+        filled += n;
+        offset = 0;
+      }
+      byte[] compressed = CodecBenchmark.compress(codec, data);
+      if (!Arrays.equals(CodecBenchmark.decompress(codec, compressed), data)) {
+        throw new IOException(String.format("Payload %d: round trip failed", i));
+      }
+      payloads.add(new Payload(data, compressed));
+    }
+    return payloads;
+  }
+
+  // Text-like filler: words from a short list, skewed towards the first
+  // ones the way word frequencies are.
+  static byte[] generate(int size) {
+    Random random = new Random(size);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(size + 32);
+    while (out.size() < size) {
+      String word = WORDS[random.nextInt(random.nextInt(WORDS.length) + 1)];
+      byte[] bytes = word.getBytes(StandardCharsets.US_ASCII);
+      out.write(bytes, 0, bytes.length);
+      out.write((random.nextInt(12) == 0) ? '\n' : ' ');
+    }
+    return Arrays.copyOf(out.toByteArray(), size);
+  }
+
+  private static void sleepUntil(long nanoTime) throws InterruptedException {
+    long left;
+    while ((left = nanoTime - System.nanoTime()) > 0) {
+      TimeUnit.NANOSECONDS.sleep(left);
+    }
+  }
+
+  // Collection count and milliseconds spent so far, per collector.
+  private static Map<String, long[]> gcTotals() {
+    Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      totals.put(gc.getName(),
+                 new long[] {gc.getCollectionCount(), gc.getCollectionTime()});
+    }
+    return totals;
+  }
+
+  // Bytes the current thread has allocated so far, or -1 if the JVM doesn't
+  // count them for it.
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+      if (counting.isThreadAllocatedMemorySupported()
+          && counting.isThreadAllocatedMemoryEnabled()) {
+        return counting.getCurrentThreadAllocatedBytes();
+      }
+    }
+    return -1;
+  }
+
+  private static final class Payload {
+    final byte[] data;
+    final byte[] compressed;
+
+    Payload(byte[] data, byte[] compressed) {
+      this.data = data;
+      this.compressed = compressed;
+    }
+  }
+
+  // One closed-loop client: the next call starts as soon as the last ends.
+  private final class Client implements Callable<Void> {
+    final FramedCodec codec;
+    final List<Payload> payloads;
+    final Random random;
+    final long measureFrom;
+    final long end;
+    final LatencyHistogram compress = new LatencyHistogram();
+    final LatencyHistogram decompress = new LatencyHistogram();
+    long requests;
+    long bytes;
+    long errors;
+    long allocated = -1;
+
+    Client(FramedCodec codec, List<Payload> payloads, int seed,
+           long measureFrom, long end) {
+      this.codec = codec;
+      this.payloads = payloads;
+      this.random = new Random(seed);
+      this.measureFrom = measureFrom;
+      this.end = end;
+    }
+
+    public Void call() {
+      boolean measuring = false;
+      long allocatedFrom = -1;
+      long now;
+      while ((now = System.nanoTime()) < end) {
+        if (!measuring && now >= measureFrom) {
+          measuring = true;
+          allocatedFrom = allocatedBytes();
+        }
+        Payload payload = payloads.get(random.nextInt(payloads.size()));
+        try {
+          if (op != Op.DECOMPRESS) {
+            long start = System.nanoTime();
+            CodecBenchmark.compress(codec, payload.data);
+            long elapsed = System.nanoTime() - start;
+            if (measuring) {
+              compress.record(elapsed);
+            }
+          }
+          if (op != Op.COMPRESS) {
+            long start = System.nanoTime();
+            byte[] restored = CodecBenchmark.decompress(codec, payload.compressed);
+            long elapsed = System.nanoTime() - start;
+            if (measuring) {
+              decompress.record(elapsed);
+            }
+            if (!Arrays.equals(restored, payload.data)) {
+              throw new IOException("Round trip failed");
+            }
+          }
+        } catch (IOException | RuntimeException e) {
+          if (measuring) {
+            errors++;
+          }
+          continue;
+        }
+        if (measuring) {
+          requests++;
+          bytes += payload.data.length;
+        }
+      }
+      if (measuring && allocatedFrom >= 0) {
+        long allocatedTo = allocatedBytes();
+        allocated = (allocatedTo >= 0) ? allocatedTo - allocatedFrom : -1;
+      } else if (!measuring) {
+        allocated = 0;
+      }
+      return null;
+    }
+  }
+
+  // A payload size distribution.
+  public static final class Sizes {
+    private final String spec;
+    private final String kind;
+    private final long a;
+    private final long b;
+    private final double sigma;
+
+    private Sizes(String spec, String kind, long a, long b, double sigma) {
+      this.spec = spec;
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+      this.sigma = sigma;
+    }
+
+    // Parses fixed:SIZE, uniform:MIN-MAX or lognormal:MEDIAN:SIGMA.
+    public static Sizes parse(String spec) {
+      String[] parts = spec.split(":");
+      try {
+        if (parts[0].equals("fixed") && parts.length == 2) {
+          long size = checkSize(parseSize(parts[1]));
+          return new Sizes(spec, parts[0], size, size, 0);
+        } else if (parts[0].equals("uniform") && parts.length == 2) {
+          String[] range = parts[1].split("-");
+          if (range.length == 2) {
+            long min = checkSize(parseSize(range[0]));
+            long max = checkSize(parseSize(range[1]));
+            if (min <= max) {
+              return new Sizes(spec, parts[0], min, max, 0);
+            }
+          }
+        } else if (parts[0].equals("lognormal") && parts.length == 3) {
+          long median = checkSize(parseSize(parts[1]));
+          double sigma = Double.parseDouble(parts[2]);
+          if (sigma >= 0) {
+            return new Sizes(spec, parts[0], median, median, sigma);
+          }
+        }
+      } catch (NumberFormatException e) {
+        /* reported below */
+      }
+      throw new IllegalArgumentException(
+        String.format("Invalid size distribution: \"%s\"", spec));
+    }
+
+    int next(Random random) {
+      if (kind.equals("uniform")) {
+        return (int) (a + (long) (random.nextDouble() * (b - a + 1)));
+      } else if (kind.equals("lognormal")) {
+        double size = a * Math.exp(sigma * random.nextGaussian());
+        return (int) Math.max(1, Math.min(MAX_PAYLOAD, Math.round(size)));
+      }
+      return (int) a;
+    }
+
+    private static long parseSize(String text) {
+      long scale = 1;
+      String digits = text.toLowerCase(Locale.ROOT);
+      if (digits.endsWith("k")) {
+        scale = 1024;
+      } else if (digits.endsWith("m")) {
+        scale = 1024 * 1024;
+      }
+      if (scale > 1) {
+        digits = digits.substring(0, digits.length() - 1);
+      }
+      return Long.parseLong(digits) * scale;
+    }
+
+    private static long checkSize(long size) {
+      if (size < 1 || size > MAX_PAYLOAD) {
+        throw new IllegalArgumentException(
+          String.format("Payload size out of range: %d", size));
+      }
+      return size;
+    }
+
+    public String toString() {
+      return spec;
+    }
+  }
+
+  public static final class Report {
+    public final LatencyHistogram compress = new LatencyHistogram();
+    public final LatencyHistogram decompress = new LatencyHistogram();
+    // Collections and milliseconds spent in them, per collector.
+    public final Map<String, long[]> gc = new LinkedHashMap<String, long[]>();
+    public final long elapsedNanos;
+    public long requests;
+    public long bytes;
+    public long errors;
+    // Bytes allocated by the clients, or -1 if not counted.
+    public long allocated;
+    private final String setup;
+
+    Report(LoadTest test, long elapsedNanos) {
+      this.elapsedNanos = elapsedNanos;
+      this.setup = String.format(
+        "%s, %d %s clients, sizes %s over %d payloads, %.1f s after %.1f s warm-up",
+        test.op.toString().toLowerCase(Locale.ROOT), test.clients,
+        test.virtual ? "virtual" : "platform", test.sizes, test.payloadCount,
+        test.durationSeconds, test.warmupSeconds);
+    }
+
+    public void print(PrintStream out) {
+      double seconds = elapsedNanos / 1e9;
+      out.println(setup);
+      out.println(String.format("requests    %d (%.1f/s), %d errors",
+                                requests, requests / seconds, errors));
+      out.println(String.format("throughput  %.2f MB/s of payload",
+                                bytes / (1024.0 * 1024.0) / seconds));
+      StringBuilder header = new StringBuilder(String.format("%-11s %10s", "latency us", "min"));
+      for (double p : PERCENTILES) {
+        header.append(String.format(" %10s", (p == Math.rint(p))
+                                    ? String.format("p%d", (long) p) : "p" + p));
+      }
+      out.println(header.append(String.format(" %10s %10s", "max", "mean")));
+      printLatency(out, "compress", compress);
+      printLatency(out, "decompress", decompress);
+      for (Map.Entry<String, long[]> collector : gc.entrySet()) {
+        out.println(String.format("gc          %s: %d collections, %d ms",
+                                  collector.getKey(), collector.getValue()[0],
+                                  collector.getValue()[1]));
+      }
+      if (allocated < 0) {
+        out.println("allocated   not counted for these threads");
+      } else {
+        out.println(String.format("allocated   %.1f MB (%d bytes per request)",
+                                  allocated / (1024.0 * 1024.0),
+                                  (requests == 0) ? 0 : allocated / requests));
+      }
+    }
+
+    private static void printLatency(PrintStream out, String name,
+                                     LatencyHistogram histogram) {
+      if (histogram.count() == 0) {
+        return;
+      }
+      StringBuilder line = new StringBuilder(String.format(
+        "%-11s %10.1f", name, histogram.min() / 1e3));
+      for (double p : PERCENTILES) {
+        line.append(String.format(" %10.1f", histogram.percentile(p) / 1e3));
+      }
+      out.println(line.append(String.format(" %10.1f %10.1f",
+                                            histogram.max() / 1e3,
+                                            histogram.mean() / 1e3)));
+    }
+  }
+}
@@ -0,0 +1,235 @@
+import java.io.*;
+import java.util.*;
+
+// Deflate-style LZ77 coding of one block: a hash-chain match finder emits
+// literals and (length, distance) pairs, which are Huffman coded with two
+// SymbolCoders, one for literals/lengths and one for distances. Length and
+// distance symbols use the deflate (RFC 1951) bases and extra bits.
+//
+// Payload: literal/length tree, distance tree, then the tokens, terminated
+// by END_OF_BLOCK.
+public class LzCodec {
+  public static final int LITERAL_LENGTH_SYMBOLS = 286;
+  public static final int DISTANCE_SYMBOLS = 30;
+  public static final int END_OF_BLOCK = 256;
+  public static final int MIN_MATCH = 3;
+  public static final int MAX_MATCH = 258;
+  public static final int WINDOW_SIZE = 32768;
+  public static final int MIN_LEVEL = 1;
+  public static final int MAX_LEVEL = 9;
+  public static final int DEFAULT_LEVEL = 6;
+
+  private static final int[] LENGTH_BASE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+    35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+  private static final int[] LENGTH_EXTRA = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+    3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+  private static final int[] DISTANCE_BASE = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+    257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+    8193, 12289, 16385, 24577 };
+  private static final int[] DISTANCE_EXTRA = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+    7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+
+  // Per level: longest hash chain walked, and the match length at which the
+  // search stops early. Levels from 4 up also try a lazy match one byte on.
+  private static final int[] MAX_CHAIN = { 0, 4, 8, 16, 16, 32, 128, 256, 1024, 4096 };
+  private static final int[] NICE_LENGTH = { 0, 8, 16, 32, 32, 64, 128, 258, 258, 258 };
+  private static final int LAZY_LEVEL = 4;
+
+  private static final int HASH_BITS = 15;
+  private static final int HASH_SIZE = 1 << HASH_BITS;
+
+  // Appends the coded form of `length` bytes of `data` at `offset` to `out`.
+  public static void encode(byte[] data, int offset, int length, int level,
+                            BitWriter out) {
+    if (level < MIN_LEVEL || level > MAX_LEVEL) {
+      throw new IllegalArgumentException(
+        String.format("LZ level out of range: %d", level));
+    }
+    // Token i is a literal when matchLength[i] == 0.
+    int[] matchLength = new int[length + 1];
+    int[] value = new int[length + 1];
+    int tokens = findMatches(data, offset, length, level, matchLength, value);
+
+    int[] literalCounts = new int[LITERAL_LENGTH_SYMBOLS];
+    int[] distanceCounts = new int[DISTANCE_SYMBOLS];
+    for (int t = 0; t < tokens; t++) {
+      if (matchLength[t] == 0) {
+        literalCounts[value[t]]++;
+      } else {
+        literalCounts[257 + lengthIndex(matchLength[t])]++;
+        distanceCounts[distanceIndex(value[t])]++;
+      }
+    }
+    literalCounts[END_OF_BLOCK]++;
+    SymbolCoder literals = SymbolCoder.build(literalCounts, LITERAL_LENGTH_SYMBOLS);
+    SymbolCoder distances = SymbolCoder.build(distanceCounts, DISTANCE_SYMBOLS);
+
+    literals.writeTree(out);
+    distances.writeTree(out);
+    for (int t = 0; t < tokens; t++) {
+      if (matchLength[t] == 0) {
+        literals.encode(out, value[t]);
+      } else {
+        int li = lengthIndex(matchLength[t]);
+        literals.encode(out, 257 + li);
+        out.writeBits(matchLength[t] - LENGTH_BASE[li], LENGTH_EXTRA[li]);
+        int di = distanceIndex(value[t]);
+        distances.encode(out, di);
+        out.writeBits(value[t] - DISTANCE_BASE[di], DISTANCE_EXTRA[di]);
+      }
+    }
+    literals.encode(out, END_OF_BLOCK);
+  }
+
+  // Decodes a payload from `encode` into exactly `length` bytes of `out` at
+  // `offset`, looking its trees up in `tables`.
+  public static void decode(byte[] payload, int payloadLength, byte[] out,
+                            int offset, int length, DecodeTableCache tables)
+      throws IOException {
+    BitReader in = new BitReader(payload, 0, payloadLength);
+    SymbolCoder literals = tables.readTree(in, LITERAL_LENGTH_SYMBOLS);
+    SymbolCoder distances = tables.readTree(in, DISTANCE_SYMBOLS);
+    int pos = offset;
+    int end = offset + length;
+    while (true) {
+      int symbol = literals.decode(in);
+      if (symbol < 256) {
+        if (pos == end) {
+          throw new IOException("LZ block overruns its length");
+        }
+        out[pos++] = (byte) symbol;
+        continue;
+      }
+      if (symbol == END_OF_BLOCK) {
+        break;
+      }
+      int li = symbol - 257;
+      int matchLength = LENGTH_BASE[li] + in.readBits(LENGTH_EXTRA[li]);
+      int di = distances.decode(in);
+      int distance = DISTANCE_BASE[di] + in.readBits(DISTANCE_EXTRA[di]);
+      if (distance > pos - offset || matchLength > end - pos) {
+        throw new IOException("Corrupt LZ match");
+      }
+      for (int i = 0; i < matchLength; i++, pos++) {
+        out[pos] = out[pos - distance];
+      }
+    }
+    if (pos != end) {
+      throw new IOException("LZ block shorter than its length");
+    }
+  }
+
+  // Fills the token arrays and returns the token count. For a match,
+  // `matchLength` holds its length and `value` its distance; for a literal,
+  // `matchLength` is 0 and `value` holds the byte.
+  private static int findMatches(byte[] data, int offset, int length, int level,
+                                 int[] matchLength, int[] value) {
+    int[] head = new int[HASH_SIZE];
+    Arrays.fill(head, -1);
+    int[] prev = new int[Math.max(1, length)];
+    int maxChain = MAX_CHAIN[level];
+    int niceLength = NICE_LENGTH[level];
+    boolean lazy = level >= LAZY_LEVEL;
+
+    int tokens = 0;
+    int i = 0;
+    while (i < length) {
+      long match = longestMatch(data, offset, length, i, head, prev, maxChain,
+                                niceLength);
+      int bestLength = (int) (match >>> 32);
+      insert(data, offset, length, i, head, prev);
+      if (bestLength >= MIN_MATCH && lazy && bestLength < niceLength
+          && i + 1 < length) {
+        long nextMatch = longestMatch(data, offset, length, i + 1, head, prev,
+                                      maxChain, niceLength);
+        if ((int) (nextMatch >>> 32) > bestLength) {
+          // Emitting a literal here buys a longer match one byte later.
+          bestLength = 0;
+        }
+      }
+      if (bestLength >= MIN_MATCH) {
+        matchLength[tokens] = bestLength;
+        value[tokens] = (int) match;
+        tokens++;
+        for (int j = i + 1; j < i + bestLength; j++) {
+          insert(data, offset, length, j, head, prev);
+        }
+        i += bestLength;
+      } else {
+        matchLength[tokens] = 0;
+        value[tokens] = data[offset + i] & 0xFF;
+        tokens++;
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  // Returns (length << 32 | distance) of the longest match for position `i`
+  // among earlier positions with the same hash, or 0 if there is none.
+  private static long longestMatch(byte[] data, int offset, int length, int i,
+                                   int[] head, int[] prev, int maxChain,
+                                   int niceLength) {
+    if (i + MIN_MATCH > length) {
+      return 0;
+    }
+    int limit = Math.min(MAX_MATCH, length - i);
+    int bestLength = MIN_MATCH - 1;
+    int bestDistance = 0;
+    int candidate = head[hash(data, offset + i)];
+    for (int chain = 0; candidate >= 0 && chain < maxChain; chain++) {
+      int distance = i - candidate;
+      if (distance > WINDOW_SIZE) {
+        break;
+      }
+      if (data[offset + candidate + bestLength] == data[offset + i + bestLength]) {
+        int n = 0;
+        while (n < limit && data[offset + candidate + n] == data[offset + i + n]) {
+          n++;
+        }
+        if (n > bestLength) {
+          bestLength = n;
+          bestDistance = distance;
+          if (n >= niceLength || n == limit) {
+            break;
+          }
+        }
+      }
+      candidate = prev[candidate];
+    }
+    if (bestDistance == 0) {
+      return 0;
+    }
+    return ((long) bestLength << 32) | bestDistance;
+  }
+
+  private static void insert(byte[] data, int offset, int length, int i,
+                             int[] head, int[] prev) {
+    if (i + MIN_MATCH > length) {
+      return;
+    }
+    int h = hash(data, offset + i);
+    prev[i] = head[h];
+    head[h] = i;
+  }
+
+  private static int hash(byte[] data, int p) {
+    int key = ((data[p] & 0xFF) << 16) | ((data[p + 1] & 0xFF) << 8)
+      | (data[p + 2] & 0xFF);
+    return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+  }
+
+  private static int lengthIndex(int matchLength) {
+    int index = Arrays.binarySearch(LENGTH_BASE, matchLength);
+    return (index >= 0) ? index : -index - 2;
+  }
+
+  private static int distanceIndex(int distance) {
+    int index = Arrays.binarySearch(DISTANCE_BASE, distance);
+    return (index >= 0) ? index : -index - 2;
+  }
+}
@@ -0,0 +1,58 @@
+import java.io.*;
+
+// Move-to-front coding: each byte is replaced by its position in a list of
+// recently seen bytes, and then moved to the front of that list. After a
+// Burrows-Wheeler transform this turns the clustered output into mostly
+// small values, which skews the histogram the Huffman coder sees.
+public class MoveToFrontTransform implements Transform {
+  public static final int ID = 3;
+
+  public int id() {
+    return ID;
+  }
+
+  public int maxForwardLength(int length) {
+    return length;
+  }
+
+  public byte[] forward(byte[] data, int offset, int length) {
+    byte[] order = initialOrder();
+    byte[] out = new byte[length];
+    for (int i = 0; i < length; i++) {
+      byte value = data[offset + i];
+      int index = 0;
+      while (order[index] != value) {
+        index++;
+      }
+      System.arraycopy(order, 0, order, 1, index);
+      order[0] = value;
+      out[i] = (byte) index;
+    }
+    return out;
+  }
+
+  public byte[] inverse(byte[] data, int length, int maxLength)
+      throws IOException {
+    if (length > maxLength) {
+      throw new IOException("Move-to-front output too long");
+    }
+    byte[] order = initialOrder();
+    byte[] out = new byte[length];
+    for (int i = 0; i < length; i++) {
+      int index = data[i] & 0xFF;
+      byte value = order[index];
+      System.arraycopy(order, 0, order, 1, index);
+      order[0] = value;
+      out[i] = value;
+    }
+    return out;
+  }
+
+  private static byte[] initialOrder() {
+    byte[] order = new byte[256];
+    for (int i = 0; i < 256; i++) {
+      order[i] = (byte) i;
+    }
+    return order;
+  }
+}
@@ -16,8 +16,6 @@ import java.util.*;
 public class Operand<T>
 {
   private static final String DEFAULT_NAME = "ARG";
-  private static final Set<Class<?>> acceptedTypes = new HashSet<>(
-    Arrays.asList(File.class, String.class, Integer.class));
 
   // Factory to make a new Operand instance to capture bindings of the
   // given `operandType`.
@@ -29,7 +27,7 @@ public class Operand<T>
   // given `operandType`, represented in the usage message with the
   // given `docName` string.
   public static <T> Operand<T> create(Class<T> operandType, String docName) {
-    if (!acceptedTypes.contains(operandType)) {
+    if (!isAcceptedType(operandType)) {
       unsupportedType(operandType);
     }
     return new Operand<>(operandType, docName);
@@ -86,6 +84,12 @@ public class Operand<T>
     this.docName = (docName != null) ? docName : DEFAULT_NAME;
   }
 
+  // Compares against the supported types directly rather than through a
+  // set built when the class loads.
+  private static boolean isAcceptedType(Class<?> type) {
+    return type == File.class || type == String.class || type == Integer.class;
+  }
+
   private static void unsupportedType(Class<?> operandType) {
     throw new IllegalArgumentException(
       String.format("Type %s is not supported", operandType));
@@ -8,9 +8,6 @@ import java.util.*;
 
 public class Option
 {
-  private static final String SHORT_FLAG_NAME_REGEX = "[A-Za-z0-9]";
-  private static final String LONG_FLAG_NAME_REGEX = "[A-Za-z0-9_-]+";
-    
   // Factory for making simple boolean options.
   public static Option create(String flags) {
     return new Option(flags, null);
@@ -32,6 +29,9 @@ public class Option
   // current option is present but the `dependency` option is missing, then
   // an error will be reported to the user.
   public Option associatedWith(Option dependency) {
+    if (dependencies == null) {
+      dependencies = new ArrayList<>();
+    }
     dependencies.add(dependency);
     return this;
   }
@@ -47,24 +47,67 @@ public class Option
   // is malformed.
   public void getFlags(Collection<String> longFlagsOut,
                        Collection<String> shortFlagsOut) {
-    String[] flags = flagsStr.split("[, ]+");
-    for (String flag: flags) {
-      if (flag.startsWith("--")) {
-        String longName = flag.substring(2);
-        if (longName.matches(LONG_FLAG_NAME_REGEX)) {
-          longFlagsOut.add(longName);
-          continue;
-        }
-      } else if (flag.startsWith("-")) {
-        String shortName = flag.substring(1);
-        if (shortName.matches(SHORT_FLAG_NAME_REGEX)) {
-          shortFlagsOut.add(shortName);
-          continue;
+    if (longFlags == null) {
+      parseFlags();
+    }
+    longFlagsOut.addAll(longFlags);
+    shortFlagsOut.addAll(shortFlags);
+  }
+
+  // Splits and checks the flag string once, on first use, and keeps the
+  // result: the parser asks for every option's flags for every argument.
+  // Checks characters directly rather than with regular expressions, which
+  // would be compiled on each call and slow down the command's startup.
+  private void parseFlags() {
+    List<String> longNames = new ArrayList<>();
+    List<String> shortNames = new ArrayList<>();
+    if (flagsStr.isEmpty()) {
+      throw new IllegalArgumentException("Invalid flag syntax: \"\"");
+    }
+    int start = 0;
+    while (start < flagsStr.length()) {
+      int end = start;
+      while (end < flagsStr.length() && !isSeparator(flagsStr.charAt(end))) {
+        end++;
+      }
+      if (end > start || start == 0) {
+        String flag = flagsStr.substring(start, end);
+        if (flag.startsWith("--") && isLongFlagName(flag.substring(2))) {
+          longNames.add(flag.substring(2));
+        } else if (flag.startsWith("-") && !flag.startsWith("--")
+                   && flag.length() == 2 && isFlagChar(flag.charAt(1))) {
+          shortNames.add(flag.substring(1));
+        } else {
+          throw new IllegalArgumentException(
+            String.format("Invalid flag syntax: \"%s\"", flag));
         }
       }
-      throw new IllegalArgumentException(
-        String.format("Invalid flag syntax: \"%s\"", flag));
+      start = end + 1;
+    }
+    this.longFlags = longNames;
+    this.shortFlags = shortNames;
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == ',' || c == ' ';
+  }
+
+  private static boolean isFlagChar(char c) {
+    return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+      || (c >= '0' && c <= '9');
+  }
+
+  private static boolean isLongFlagName(String name) {
+    if (name.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!isFlagChar(c) && c != '_' && c != '-') {
+        return false;
+      }
     }
+    return true;
   }
 
   public String getSummary() {
@@ -72,7 +115,7 @@ public class Option
   }
 
   public Collection<Option> getDependencies() {
-    return dependencies;
+    return (dependencies == null) ? Collections.emptyList() : dependencies;
   }
 
   public boolean hasOperand() {
@@ -94,7 +137,10 @@ public class Option
   
   private final String flagsStr;
   private final Operand<?> operand;
-  private final List<Option> dependencies = new ArrayList<>();
+  // Built on first use, to keep option tables cheap to set up.
+  private List<Option> dependencies = null;
+  private List<String> longFlags = null;
+  private List<String> shortFlags = null;
   private String summary = "";
   
   private Option(String flagsStr, Operand<?> operand) {
@@ -0,0 +1,164 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+// An InputStream that reads its source on a dedicated thread, filling up to
+// `buffers` buffers of `bufferSize` bytes ahead of the consumer, so that the
+// coding loop finds the next stretch of input already in memory instead of
+// waiting on the disk.
+//
+// Buffers cycle between two queues: the reader thread takes an empty one,
+// fills it, and hands it over; the consumer drains it and hands it back.
+// With two buffers this is classic double buffering. Errors on the reader
+// thread are rethrown to the consumer by the read that reaches them.
+public class ReadAheadInputStream extends InputStream {
+  private static final Chunk END = new Chunk(null, 0, null);
+
+  private final InputStream source;
+  private final BufferPool pool;
+  private final BlockingQueue<byte[]> empty;
+  private final BlockingQueue<Chunk> filled;
+  private final Thread reader;
+
+  private Chunk current;
+  private int position;
+  private boolean closed;
+
+  public ReadAheadInputStream(InputStream source, int bufferSize, int buffers,
+                              BufferPool pool) {
+    if (bufferSize < 1 || buffers < 2) {
+      throw new IllegalArgumentException(
+        String.format("Need at least 2 buffers of at least 1 byte: %d x %d",
+                      buffers, bufferSize));
+    }
+    this.source = source;
+    this.pool = pool;
+    this.empty = new ArrayBlockingQueue<byte[]>(buffers);
+    this.filled = new ArrayBlockingQueue<Chunk>(buffers + 1);
+    for (int i = 0; i < buffers; i++) {
+      empty.add(pool.acquire(bufferSize));
+    }
+    this.reader = new Thread(() -> fill(bufferSize), "read-ahead");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  // Body of the reader thread.
+  private void fill(int bufferSize) {
+    try {
+      while (true) {
+        byte[] buffer = empty.take();
+        int length = source.readNBytes(buffer, 0, bufferSize);
+        if (length > 0) {
+          filled.put(new Chunk(buffer, length, null));
+        }
+        if (length < bufferSize) {
+          if (length == 0) {
+            empty.put(buffer);
+          }
+          filled.put(END);
+          return;
+        }
+      }
+    } catch (IOException e) {
+      filled.offer(new Chunk(null, 0, e));
+    } catch (InterruptedException e) {
+      /* closed by the consumer */
+    }
+  }
+
+  public int read() throws IOException {
+    if (!fillCurrent()) {
+      return -1;
+    }
+    return current.data[position++] & 0xFF;
+  }
+
+  public int read(byte[] b, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!fillCurrent()) {
+      return -1;
+    }
+    int n = Math.min(length, current.length - position);
+    System.arraycopy(current.data, position, b, offset, n);
+    position += n;
+    return n;
+  }
+
+  // Makes sure `current` has at least one unread byte, waiting for the
+  // reader thread if need be. Returns false at end of stream.
+  private boolean fillCurrent() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (current != null && position < current.length) {
+      return true;
+    }
+    if (current == END) {
+      return false;
+    }
+    if (current != null) {
+      empty.add(current.data);
+    }
+    try {
+      current = filled.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    position = 0;
+    if (current.error != null) {
+      IOException error = current.error;
+      current = END;
+      throw error;
+    }
+    return current != END;
+  }
+
+  // Bytes that can be read without waiting: what is left of the current
+  // buffer.
+  public int available() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    return (current == null || current == END) ? 0 : current.length - position;
+  }
+
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    source.close();
+    if (current != null && current.data != null) {
+      pool.release(current.data);
+    }
+    for (Chunk chunk : filled) {
+      if (chunk.data != null) {
+        pool.release(chunk.data);
+      }
+    }
+    for (byte[] buffer : empty) {
+      pool.release(buffer);
+    }
+  }
+
+  private static final class Chunk {
+    final byte[] data;
+    final int length;
+    final IOException error;
+
+    Chunk(byte[] data, int length, IOException error) {
+      this.data = data;
+      this.length = length;
+      this.error = error;
+    }
+  }
+}
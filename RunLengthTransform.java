@@ -0,0 +1,98 @@
+import java.io.*;
+import java.util.*;
+
+// Collapses runs of identical bytes before frequency counting, so that long
+// runs cost a few bytes instead of at least one bit per byte.
+//
+// Uses the bzip2 "RLE1" encoding: bytes are copied through, and after
+// RUN_THRESHOLD identical bytes in a row the next byte is a count (0-255)
+// of further repeats. The output is still a byte stream, so the existing
+// byte-alphabet coder handles it unchanged.
+public class RunLengthTransform implements Transform {
+  public static final int ID = 1;
+  private static final int RUN_THRESHOLD = 4;
+  private static final int MAX_EXTRA = 255;
+
+  public int id() {
+    return ID;
+  }
+
+  // Worst case is a run of exactly RUN_THRESHOLD every RUN_THRESHOLD bytes,
+  // each followed by a zero count.
+  public int maxForwardLength(int length) {
+    return length + length / RUN_THRESHOLD + 1;
+  }
+
+  public byte[] forward(byte[] data, int offset, int length) {
+    byte[] out = new byte[maxForwardLength(length)];
+    int size = 0;
+    int i = offset;
+    int end = offset + length;
+    while (i < end) {
+      byte value = data[i];
+      int run = 1;
+      while (i + run < end && run < RUN_THRESHOLD + MAX_EXTRA
+             && data[i + run] == value) {
+        run++;
+      }
+      if (run >= RUN_THRESHOLD) {
+        for (int j = 0; j < RUN_THRESHOLD; j++) {
+          out[size++] = value;
+        }
+        out[size++] = (byte) (run - RUN_THRESHOLD);
+      } else {
+        for (int j = 0; j < run; j++) {
+          out[size++] = value;
+        }
+      }
+      i += run;
+    }
+    return Arrays.copyOf(out, size);
+  }
+
+  public byte[] inverse(byte[] data, int length, int maxLength)
+      throws IOException {
+    int size = 0;
+    for (int i = 0; i < length; ) {
+      int run = runAt(data, i, length);
+      if (run == RUN_THRESHOLD) {
+        if (i + run >= length) {
+          throw new IOException("Truncated run-length count");
+        }
+        size += run + (data[i + run] & 0xFF);
+        i += run + 1;
+      } else {
+        size += run;
+        i += run;
+      }
+      if (size > maxLength) {
+        throw new IOException("Run-length output too long");
+      }
+    }
+    byte[] out = new byte[size];
+    int pos = 0;
+    for (int i = 0; i < length; ) {
+      int run = runAt(data, i, length);
+      if (run == RUN_THRESHOLD) {
+        int total = run + (data[i + run] & 0xFF);
+        Arrays.fill(out, pos, pos + total, data[i]);
+        pos += total;
+        i += run + 1;
+      } else {
+        Arrays.fill(out, pos, pos + run, data[i]);
+        pos += run;
+        i += run;
+      }
+    }
+    return out;
+  }
+
+  // Length of the run starting at `i`, capped at RUN_THRESHOLD.
+  private static int runAt(byte[] data, int i, int length) {
+    int run = 1;
+    while (run < RUN_THRESHOLD && i + run < length && data[i + run] == data[i]) {
+      run++;
+    }
+    return run;
+  }
+}
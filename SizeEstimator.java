@@ -0,0 +1,160 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+// Works out how large `HuffmanCodes.encode` would make an input from its
+// byte histogram alone, without producing any output: the 32-bit length
+// header, the tree exactly as `writeTree` emits it, and the code bits,
+// rounded up to whole bytes.
+//
+// The histogram can be counted over the whole input, which makes the size
+// exact, or over evenly spaced SAMPLE_CHUNK-byte stretches making up a
+// given fraction of a file, which makes it an estimate but costs only
+// that fraction of the reads.
+public class SizeEstimator {
+  public static final int HEADER_BITS = 32;
+  public static final int SAMPLE_CHUNK = 64 * 1024;
+
+  private static final int READ_SIZE = 1024 * 1024;
+
+  private SizeEstimator() {
+  }
+
+  // Exact number of bits `HuffmanCodes.encode` writes for an input with
+  // these byte counts, indexed by unsigned byte value. At least one count
+  // must be positive.
+  public static long encodedBits(long[] counts) {
+    CodeTree tree = CodeTree.build(counts);
+    return HEADER_BITS + treeBits(tree) + codeBits(tree, counts);
+  }
+
+  // Bits `writeTree` emits for `tree`: one bit per node and a byte per
+  // leaf.
+  public static long treeBits(CodeTree tree) {
+    int leaves = tree.decisionNodes() + 1;
+    return tree.decisionNodes() + 9L * leaves;
+  }
+
+  // Bits taken by the codes `tree` gives these byte counts.
+  public static long codeBits(CodeTree tree, long[] counts) {
+    long bits = 0;
+    for (int s = 0; s < 256; s++) {
+      bits += counts[s] * tree.length(s);
+    }
+    return bits;
+  }
+
+  // As `encodedBits`, in bytes, with the last byte padded out.
+  public static long encodedSize(long[] counts) {
+    return (encodedBits(counts) + 7) / 8;
+  }
+
+  // Counts every byte of `in`.
+  public static long[] histogram(InputStream in) throws IOException {
+    Kernels kernels = Kernels.get();
+    long[] counts = new long[256];
+    int[] chunkCounts = new int[256];
+    byte[] buffer = new byte[READ_SIZE];
+    int length;
+    while ((length = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+      kernels.histogram(buffer, 0, length, chunkCounts);
+      for (int s = 0; s < 256; s++) {
+        counts[s] += chunkCounts[s];
+        chunkCounts[s] = 0;
+      }
+    }
+    return counts;
+  }
+
+  // Counts `fraction` of the file, in SAMPLE_CHUNK-byte stretches spread
+  // evenly from start to end, and scales the counts up to the file's
+  // length. Files too small to sample, and fractions of 1 or more, are
+  // counted in full.
+  public static long[] sampleHistogram(Path file, double fraction)
+      throws IOException {
+    if (!(fraction > 0)) {
+      throw new IllegalArgumentException(
+        String.format("Sample fraction must be positive: %s", fraction));
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (countsInFull(size, fraction)) {
+        return histogram(Channels.newInputStream(channel));
+      }
+      long chunks = (long) Math.ceil(size * fraction / SAMPLE_CHUNK);
+      Kernels kernels = Kernels.get();
+      int[] sampled = new int[256];
+      long[] counts = new long[256];
+      ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_CHUNK);
+      long sampledBytes = 0;
+      long stride = size / chunks;
+      for (long c = 0; c < chunks; c++) {
+        buffer.clear();
+        long position = c * stride;
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, position + buffer.position()) < 0) {
+            break;
+          }
+        }
+        kernels.histogram(buffer.array(), 0, buffer.position(), sampled);
+        sampledBytes += buffer.position();
+        for (int s = 0; s < 256; s++) {
+          counts[s] += sampled[s];
+          sampled[s] = 0;
+        }
+      }
+      double scale = (double) size / sampledBytes;
+      for (int s = 0; s < 256; s++) {
+        counts[s] = Math.round(counts[s] * scale);
+      }
+      return counts;
+    }
+  }
+
+  // Estimates the encoded size of `file` from a sample of the given
+  // fraction of it; 1 counts the whole file and gives the exact size.
+  public static Estimate estimate(Path file, double fraction)
+      throws IOException {
+    long start = System.nanoTime();
+    long size = Files.size(file);
+    long[] counts = sampleHistogram(file, fraction);
+    // An empty input has no tree to send and can't be encoded at all.
+    long encoded = (size == 0) ? 0 : encodedSize(counts);
+    return new Estimate(size, encoded, countsInFull(size, fraction),
+                        System.nanoTime() - start);
+  }
+
+  // Whether a sample of `fraction` of `size` bytes would cover them all.
+  private static boolean countsInFull(long size, double fraction) {
+    return fraction >= 1
+      || Math.ceil(size * fraction / SAMPLE_CHUNK) * SAMPLE_CHUNK >= size;
+  }
+
+  public static class Estimate {
+    public final long inputBytes;
+    public final long encodedBytes;
+    // Whether the whole input was counted, so that `encodedBytes` is the
+    // exact size rather than an estimate.
+    public final boolean exact;
+    public final long elapsedNanos;
+
+    Estimate(long inputBytes, long encodedBytes, boolean exact,
+             long elapsedNanos) {
+      this.inputBytes = inputBytes;
+      this.encodedBytes = encodedBytes;
+      this.exact = exact;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public double ratio() {
+      return (inputBytes == 0) ? 0.0 : (double) encodedBytes / inputBytes;
+    }
+
+    public String toString() {
+      return String.format("%d -> %s%d bytes, ratio %.3f, %.3f s",
+                           inputBytes, exact ? "" : "~", encodedBytes,
+                           ratio(), elapsedNanos / 1e9);
+    }
+  }
+}
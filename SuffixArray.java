@@ -0,0 +1,157 @@
+import java.util.*;
+
+// Linear-time suffix array construction by induced sorting (SA-IS, Nong,
+// Zhang and Chan 2009). Used by BurrowsWheelerTransform, where it replaces
+// the O(n log^2 n) comparison sort a naive rotation sort would need.
+public class SuffixArray {
+  private static final int NAIVE_THRESHOLD = 10;
+
+  // Returns the suffix array of `length` bytes of `data` at `offset`.
+  public static int[] build(byte[] data, int offset, int length) {
+    int[] s = new int[length];
+    for (int i = 0; i < length; i++) {
+      s[i] = data[offset + i] & 0xFF;
+    }
+    return build(s, 255);
+  }
+
+  // Returns the suffix array of `s`, whose values lie in [0, upper].
+  public static int[] build(int[] s, int upper) {
+    int n = s.length;
+    if (n == 0) {
+      return new int[0];
+    }
+    if (n < NAIVE_THRESHOLD) {
+      return naive(s);
+    }
+
+    int[] sa = new int[n];
+    boolean[] ls = new boolean[n];
+    for (int i = n - 2; i >= 0; i--) {
+      ls[i] = (s[i] == s[i + 1]) ? ls[i + 1] : (s[i] < s[i + 1]);
+    }
+    int[] sumL = new int[upper + 2];
+    int[] sumS = new int[upper + 2];
+    for (int i = 0; i < n; i++) {
+      if (!ls[i]) {
+        sumS[s[i]]++;
+      } else {
+        sumL[s[i] + 1]++;
+      }
+    }
+    for (int i = 0; i <= upper; i++) {
+      sumS[i] += sumL[i];
+      if (i < upper) {
+        sumL[i + 1] += sumS[i];
+      }
+    }
+
+    int[] lmsMap = new int[n + 1];
+    Arrays.fill(lmsMap, -1);
+    int m = 0;
+    for (int i = 1; i < n; i++) {
+      if (!ls[i - 1] && ls[i]) {
+        lmsMap[i] = m++;
+      }
+    }
+    int[] lms = new int[m];
+    for (int i = 1, j = 0; i < n; i++) {
+      if (!ls[i - 1] && ls[i]) {
+        lms[j++] = i;
+      }
+    }
+
+    induce(s, upper, sa, ls, sumL, sumS, lms);
+
+    if (m > 0) {
+      int[] sortedLms = new int[m];
+      int k = 0;
+      for (int v : sa) {
+        if (lmsMap[v] != -1) {
+          sortedLms[k++] = v;
+        }
+      }
+      int[] recS = new int[m];
+      int recUpper = 0;
+      recS[lmsMap[sortedLms[0]]] = 0;
+      for (int i = 1; i < m; i++) {
+        int l = sortedLms[i - 1];
+        int r = sortedLms[i];
+        int endL = (lmsMap[l] + 1 < m) ? lms[lmsMap[l] + 1] : n;
+        int endR = (lmsMap[r] + 1 < m) ? lms[lmsMap[r] + 1] : n;
+        boolean same = true;
+        if (endL - l != endR - r) {
+          same = false;
+        } else {
+          while (l < endL && s[l] == s[r]) {
+            l++;
+            r++;
+          }
+          if (l == n || s[l] != s[r]) {
+            same = false;
+          }
+        }
+        if (!same) {
+          recUpper++;
+        }
+        recS[lmsMap[sortedLms[i]]] = recUpper;
+      }
+
+      int[] recSa = build(recS, recUpper);
+      for (int i = 0; i < m; i++) {
+        sortedLms[i] = lms[recSa[i]];
+      }
+      induce(s, upper, sa, ls, sumL, sumS, sortedLms);
+    }
+    return sa;
+  }
+
+  private static void induce(int[] s, int upper, int[] sa, boolean[] ls,
+                             int[] sumL, int[] sumS, int[] lms) {
+    int n = s.length;
+    Arrays.fill(sa, -1);
+    int[] buf = Arrays.copyOf(sumS, upper + 2);
+    for (int d : lms) {
+      if (d != n) {
+        sa[buf[s[d]]++] = d;
+      }
+    }
+    buf = Arrays.copyOf(sumL, upper + 2);
+    sa[buf[s[n - 1]]++] = n - 1;
+    for (int i = 0; i < n; i++) {
+      int v = sa[i];
+      if (v >= 1 && !ls[v - 1]) {
+        sa[buf[s[v - 1]]++] = v - 1;
+      }
+    }
+    buf = Arrays.copyOf(sumL, upper + 2);
+    for (int i = n - 1; i >= 0; i--) {
+      int v = sa[i];
+      if (v >= 1 && ls[v - 1]) {
+        sa[--buf[s[v - 1] + 1]] = v - 1;
+      }
+    }
+  }
+
+  private static int[] naive(int[] s) {
+    Integer[] order = new Integer[s.length];
+    for (int i = 0; i < s.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> {
+      while (a < s.length && b < s.length) {
+        if (s[a] != s[b]) {
+          return Integer.compare(s[a], s[b]);
+        }
+        a++;
+        b++;
+      }
+      return (a == s.length) ? -1 : 1;
+    });
+    int[] sa = new int[s.length];
+    for (int i = 0; i < s.length; i++) {
+      sa[i] = order[i];
+    }
+    return sa;
+  }
+}
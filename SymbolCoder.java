@@ -0,0 +1,324 @@
+import java.io.*;
+import java.util.*;
+
+// A Huffman code over an integer alphabet [0, alphabetSize), for any
+// alphabet up to MAX_ALPHABET_SIZE symbols: bytes, 16-bit samples, and
+// token alphabets such as the LZ77 literal/length and distance codes.
+//
+// The tree is built exactly as `HuffmanCodes.buildTree` builds it: the two
+// lightest trees are repeatedly merged, the first removed going right. It is
+// serialized in the same pre-order form as `writeTree` (0 for a decision
+// node, 1 followed by the symbol for a leaf), except that leaves take
+// `symbolBits` bits instead of a fixed 8. Everything is kept in primitive
+// arrays; nodes are numbered with leaves first.
+public class SymbolCoder {
+  public static final int MAX_ALPHABET_SIZE = 1 << 16;
+  // Codes up to this long decode with a single table lookup.
+  private static final int MAX_TABLE_BITS = 11;
+
+  private final int alphabetSize;
+  private final int symbolBits;
+  private final int[] codes;
+  private final int[] lengths;
+  // Children of decision node i; a negative entry -(s + 1) is leaf s.
+  private final int[] child0;
+  private final int[] child1;
+  private final int root;
+  private final int decisionNodes;
+  // Indexed by the next `tableBits` bits: (symbol << 8 | code length), or 0
+  // when the code is longer than `tableBits`. Only built for decoding.
+  private int[] decodeTable;
+  private int tableBits;
+
+  private SymbolCoder(int alphabetSize, int[] child0, int[] child1, int root,
+                      int decisionNodes) {
+    this.alphabetSize = alphabetSize;
+    this.decisionNodes = decisionNodes;
+    this.symbolBits = bitsFor(alphabetSize);
+    this.child0 = child0;
+    this.child1 = child1;
+    this.root = root;
+    this.codes = new int[alphabetSize];
+    this.lengths = new int[alphabetSize];
+    assignCodes();
+  }
+
+  // Builds a code for the given symbol counts. Symbols with a zero count get
+  // no code. If no symbol is used at all, symbol 0 is given the empty code
+  // so the tree can still be written.
+  public static SymbolCoder build(int[] counts, int alphabetSize) {
+    checkAlphabetSize(alphabetSize);
+    int used = 0;
+    for (int i = 0; i < alphabetSize; i++) {
+      if (counts[i] > 0) {
+        used++;
+      }
+    }
+    if (used == 0) {
+      return new SymbolCoder(alphabetSize, new int[0], new int[0], -1, 0);
+    }
+    // Node ids: 0..used-1 are leaves, used.. are decision nodes.
+    int[] symbolOf = new int[used];
+    long[] weight = new long[2 * used - 1];
+    int[] child0 = new int[Math.max(0, used - 1)];
+    int[] child1 = new int[Math.max(0, used - 1)];
+    PriorityQueue<Integer> forest = new PriorityQueue<Integer>(used,
+      (a, b) -> (weight[a] != weight[b]) ? Long.compare(weight[a], weight[b])
+                                         : Integer.compare(a, b));
+    for (int i = 0, leaf = 0; i < alphabetSize; i++) {
+      if (counts[i] > 0) {
+        symbolOf[leaf] = i;
+        weight[leaf] = counts[i];
+        forest.add(leaf++);
+      }
+    }
+    int next = used;
+    while (forest.size() > 1) {
+      int right = forest.remove();
+      int left = forest.remove();
+      int node = next - used;
+      child0[node] = toChild(left, used, symbolOf);
+      child1[node] = toChild(right, used, symbolOf);
+      weight[next] = weight[left] + weight[right];
+      forest.add(next++);
+    }
+    int top = forest.remove();
+    return new SymbolCoder(alphabetSize, child0, child1,
+                           toChild(top, used, symbolOf), used - 1);
+  }
+
+  private static int toChild(int id, int used, int[] symbolOf) {
+    return (id < used) ? -(symbolOf[id] + 1) : id - used;
+  }
+
+  // Reads a tree written by `writeTree` for the same alphabet size.
+  public static SymbolCoder readTree(BitReader in, int alphabetSize)
+      throws IOException {
+    checkAlphabetSize(alphabetSize);
+    int symbolBits = bitsFor(alphabetSize);
+    int[] child0 = new int[Math.max(1, alphabetSize - 1)];
+    int[] child1 = new int[child0.length];
+    // Pre-order rebuild with an explicit stack of (node, side) slots to fill,
+    // and each stacked node's code length, which must stay below 32 for its
+    // children's codes to fit in an int.
+    int[] stackNode = new int[alphabetSize + 1];
+    int[] stackSide = new int[alphabetSize + 1];
+    int[] stackLength = new int[alphabetSize + 1];
+    int depth = 0;
+    int nodes = 0;
+    int root = 0;
+    boolean first = true;
+    do {
+      int child;
+      if (in.readBit() == 1) {
+        int symbol = in.readBits(symbolBits);
+        if (symbol >= alphabetSize) {
+          throw new IOException(String.format("Corrupt code tree: symbol %d", symbol));
+        }
+        child = -(symbol + 1);
+      } else {
+        if (nodes == child0.length || depth == alphabetSize) {
+          throw new IOException("Corrupt code tree: too many nodes");
+        }
+        child = nodes++;
+      }
+      int length = 0;
+      if (first) {
+        root = child;
+        first = false;
+      } else {
+        depth--;
+        length = stackLength[depth] + 1;
+        if (stackSide[depth] == 0) {
+          child0[stackNode[depth]] = child;
+          stackSide[depth] = 1;
+          depth++;
+        } else {
+          child1[stackNode[depth]] = child;
+        }
+      }
+      if (child >= 0) {
+        if (length == 32) {
+          throw new IOException("Corrupt code tree: too deep");
+        }
+        stackNode[depth] = child;
+        stackSide[depth] = 0;
+        stackLength[depth] = length;
+        depth++;
+      }
+    } while (depth > 0);
+    SymbolCoder coder = new SymbolCoder(alphabetSize, child0, child1, root, nodes);
+    coder.buildDecodeTable();
+    return coder;
+  }
+
+  // Reads past a tree written by `writeTree` without rebuilding it,
+  // checking only that it is well formed enough to have an end.
+  public static void skipTree(BitReader in, int alphabetSize)
+      throws IOException {
+    checkAlphabetSize(alphabetSize);
+    int symbolBits = bitsFor(alphabetSize);
+    int maxNodes = Math.max(1, alphabetSize - 1);
+    int nodes = 0;
+    // Slots still to be filled: a decision node fills one and opens two.
+    int open = 1;
+    do {
+      if (in.readBit() == 1) {
+        int symbol = in.readBits(symbolBits);
+        if (symbol >= alphabetSize) {
+          throw new IOException(String.format("Corrupt code tree: symbol %d", symbol));
+        }
+        open--;
+      } else {
+        if (nodes++ == maxNodes) {
+          throw new IOException("Corrupt code tree: too many nodes");
+        }
+        open++;
+      }
+    } while (open > 0);
+  }
+
+  public void writeTree(BitWriter out) {
+    writeNode(out, root);
+  }
+
+  private void writeNode(BitWriter out, int node) {
+    if (node < 0) {
+      out.writeBit(1);
+      out.writeBits(-node - 1, symbolBits);
+    } else {
+      out.writeBit(0);
+      writeNode(out, child0[node]);
+      writeNode(out, child1[node]);
+    }
+  }
+
+  public void encode(BitWriter out, int symbol) {
+    out.writeBits(codes[symbol], lengths[symbol]);
+  }
+
+  // Decodes one symbol, with a single table lookup for codes up to
+  // MAX_TABLE_BITS long when this coder came from `readTree`.
+  public int decode(BitReader in) throws IOException {
+    if (tableBits == 0) {
+      return walk(in);
+    }
+    int entry = decodeTable[in.peekBits(tableBits)];
+    if (entry == 0) {
+      return walk(in);
+    }
+    in.skipBits(entry & 0xFF);
+    return entry >>> 8;
+  }
+
+  private int walk(BitReader in) throws IOException {
+    int node = root;
+    while (node >= 0) {
+      node = (in.readBit() == 0) ? child0[node] : child1[node];
+    }
+    return -node - 1;
+  }
+
+  private void buildDecodeTable() {
+    int maxLength = 0;
+    for (int i = 0; i < alphabetSize; i++) {
+      maxLength = Math.max(maxLength, lengths[i]);
+    }
+    tableBits = Math.min(maxLength, MAX_TABLE_BITS);
+    if (tableBits == 0) {
+      return;
+    }
+    decodeTable = new int[1 << tableBits];
+    for (int i = 0; i < alphabetSize; i++) {
+      int length = lengths[i];
+      if (length == 0 || length > tableBits) {
+        continue;
+      }
+      int first = codes[i] << (tableBits - length);
+      int entry = (i << 8) | length;
+      Arrays.fill(decodeTable, first, first + (1 << (tableBits - length)), entry);
+    }
+  }
+
+  // Number of code bits needed for the given symbol counts; the
+  // BitWriter-free counterpart of `HuffmanCodes.byteSize`.
+  public long encodedBits(int[] counts) {
+    long bits = 0;
+    for (int i = 0; i < alphabetSize; i++) {
+      bits += (long) counts[i] * lengths[i];
+    }
+    return bits;
+  }
+
+  // Number of bits `writeTree` emits: one per node plus a symbol per leaf.
+  public int treeBits() {
+    return decisionNodes + (decisionNodes + 1) * (1 + symbolBits);
+  }
+
+  // Code length of `symbol` in bits, 0 if it has no code.
+  public int length(int symbol) {
+    return lengths[symbol];
+  }
+
+  // Approximate number of bytes the code's arrays take up.
+  public long footprint() {
+    long ints = (long) codes.length + lengths.length + child0.length + child1.length
+      + ((decodeTable != null) ? decodeTable.length : 0);
+    return 4 * ints;
+  }
+
+  public int getAlphabetSize() {
+    return alphabetSize;
+  }
+
+  private static void checkAlphabetSize(int alphabetSize) {
+    if (alphabetSize < 1 || alphabetSize > MAX_ALPHABET_SIZE) {
+      throw new IllegalArgumentException(
+        String.format("Alphabet size out of range: %d", alphabetSize));
+    }
+  }
+
+  // Fewest bits that can hold every symbol below `alphabetSize`.
+  static int bitsFor(int alphabetSize) {
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(alphabetSize - 1));
+  }
+
+  private void assignCodes() {
+    if (root < 0) {
+      // Zero or one symbol in use: the empty code.
+      return;
+    }
+    int[] stackNode = new int[alphabetSize + 1];
+    int[] stackCode = new int[alphabetSize + 1];
+    int[] stackLength = new int[alphabetSize + 1];
+    int top = 0;
+    stackNode[top] = root;
+    stackCode[top] = 0;
+    stackLength[top] = 0;
+    top++;
+    while (top > 0) {
+      top--;
+      int node = stackNode[top];
+      int code = stackCode[top];
+      int length = stackLength[top];
+      if (node < 0) {
+        codes[-node - 1] = code;
+        lengths[-node - 1] = length;
+        continue;
+      }
+      if (length == 32) {
+        // Block sizes keep built codes far shorter, and `readTree` rejects
+        // deeper trees.
+        throw new IllegalStateException("Code longer than 32 bits");
+      }
+      stackNode[top] = child1[node];
+      stackCode[top] = (code << 1) | 1;
+      stackLength[top] = length + 1;
+      top++;
+      stackNode[top] = child0[node];
+      stackCode[top] = code << 1;
+      stackLength[top] = length + 1;
+      top++;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+import java.io.*;
+
+// A reversible pre-processing stage applied to each input block before it
+// is Huffman coded, and undone after it is decoded. Stages are chained in
+// the order they were added to CodecOptions; their ids are recorded in the
+// frame header so that the decoder can rebuild the same chain.
+public interface Transform {
+  // Identifier written to the frame header. Must be unique per stage.
+  int id();
+
+  // Upper bound on the length `forward` can produce for `length` bytes of
+  // input, used by the decoder to reject corrupt group headers.
+  int maxForwardLength(int length);
+
+  // Returns the transformed form of `length` bytes of `data` at `offset`.
+  byte[] forward(byte[] data, int offset, int length);
+
+  // Undoes `forward` on the first `length` bytes of `data`. Throws an
+  // IOException if the data couldn't have been produced by `forward`, or
+  // would come to more than `maxLength` bytes, before allocating the
+  // result.
+  byte[] inverse(byte[] data, int length, int maxLength) throws IOException;
+
+  // Maps a header id back to its stage.
+  static Transform forId(int id) throws IOException {
+    switch (id) {
+      case RunLengthTransform.ID:
+        return new RunLengthTransform();
+      case BurrowsWheelerTransform.ID:
+        return new BurrowsWheelerTransform();
+      case MoveToFrontTransform.ID:
+        return new MoveToFrontTransform();
+      default:
+        throw new IOException(String.format("Unknown transform: %d", id));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+import jdk.incubator.vector.*;
+
+// SIMD kernels using the incubating Vector API. Must be compiled and run
+// with `--add-modules jdk.incubator.vector`; Kernels only loads this class
+// when that module is present and `-Dhuffman.vector=true` asks for it.
+//
+// The Vector API has no conflict-free scatter-add, so the histogram keeps
+// the scalar four-table loop and only adds a vector fast path for chunks
+// that are a single repeated byte, testing less often while it misses.
+public class VectorKernels extends Kernels.Scalar {
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+  // Runs shorter than this are found faster by the scalar loop than by
+  // setting up vector compares.
+  private static final int SCALAR_PREFIX = 16;
+  // After a chunk that isn't a single repeated byte, up to this many chunks
+  // are counted without testing, so varied data pays little for the check.
+  private static final int MAX_SKIP = 64;
+
+  public String name() {
+    return "vector(" + SPECIES.vectorBitSize() + ")";
+  }
+
+  public void histogram(byte[] data, int offset, int length, int[] counts) {
+    int[][] tables = new int[4][256];
+    int lanes = SPECIES.length();
+    int end = offset + length;
+    int i = offset;
+    int start = offset;
+    int skip = 1;
+    while (i + lanes <= end) {
+      ByteVector chunk = ByteVector.fromArray(SPECIES, data, i);
+      if (!chunk.compare(VectorOperators.NE, data[i]).anyTrue()) {
+        count(data, start, i, tables);
+        tables[0][data[i] & 0xFF] += lanes;
+        start = i + lanes;
+        i += lanes;
+        skip = 1;
+      } else {
+        i += lanes * skip;
+        skip = Math.min(MAX_SKIP, skip * 2);
+      }
+    }
+    count(data, start, end, tables);
+    merge(tables, counts);
+  }
+
+  public int runLength(byte[] data, int offset, int end) {
+    int lanes = SPECIES.length();
+    byte value = data[offset];
+    int i = offset + 1;
+    int prefixEnd = Math.min(end, offset + SCALAR_PREFIX);
+    while (i < prefixEnd && data[i] == value) {
+      i++;
+    }
+    if (i < prefixEnd || i == end) {
+      return i - offset;
+    }
+    ByteVector run = ByteVector.broadcast(SPECIES, value);
+    for (; i + lanes <= end; i += lanes) {
+      VectorMask<Byte> differs =
+        ByteVector.fromArray(SPECIES, data, i).compare(VectorOperators.NE, run);
+      if (differs.anyTrue()) {
+        return i + differs.firstTrue() - offset;
+      }
+    }
+    while (i < end && data[i] == value) {
+      i++;
+    }
+    return i - offset;
+  }
+}
@@ -0,0 +1,176 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+// An OutputStream that hands full buffers to a dedicated writer thread, so
+// that the coding loop can go on producing output while earlier output is
+// still on its way to the disk. The counterpart of ReadAheadInputStream,
+// with the same two-queue buffer cycle.
+//
+// A failed write on the writer thread is reported by the next `write`,
+// `flush` or `close` on this stream.
+public class WriteBehindOutputStream extends OutputStream {
+  private final OutputStream sink;
+  private final BufferPool pool;
+  private final BlockingQueue<byte[]> empty;
+  private final BlockingQueue<Chunk> filled;
+  private final Thread writer;
+  private volatile IOException error;
+
+  private byte[] current;
+  private int size;
+  private boolean closed;
+
+  public WriteBehindOutputStream(OutputStream sink, int bufferSize, int buffers,
+                                 BufferPool pool) {
+    if (bufferSize < 1 || buffers < 2) {
+      throw new IllegalArgumentException(
+        String.format("Need at least 2 buffers of at least 1 byte: %d x %d",
+                      buffers, bufferSize));
+    }
+    this.sink = sink;
+    this.pool = pool;
+    this.empty = new ArrayBlockingQueue<byte[]>(buffers);
+    this.filled = new ArrayBlockingQueue<Chunk>(buffers + 1);
+    for (int i = 0; i < buffers - 1; i++) {
+      empty.add(pool.acquire(bufferSize));
+    }
+    this.current = pool.acquire(bufferSize);
+    this.writer = new Thread(this::drain, "write-behind");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  // Body of the writer thread. After a failure it keeps taking chunks, so
+  // the producer never blocks, but writes nothing more.
+  private void drain() {
+    try {
+      while (true) {
+        Chunk chunk = filled.take();
+        if (error == null) {
+          try {
+            if (chunk.data != null) {
+              sink.write(chunk.data, 0, chunk.length);
+            } else if (chunk.flushed != null) {
+              sink.flush();
+            }
+          } catch (IOException e) {
+            error = e;
+          }
+        }
+        if (chunk.data != null) {
+          empty.put(chunk.data);
+        } else if (chunk.flushed != null) {
+          chunk.flushed.countDown();
+        } else {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      /* abandoned by close */
+    }
+  }
+
+  public void write(int b) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (size == current.length) {
+      handOff();
+    }
+    current[size++] = (byte) b;
+  }
+
+  public void write(byte[] b, int offset, int length) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (length > 0) {
+      if (size == current.length) {
+        handOff();
+      }
+      int n = Math.min(length, current.length - size);
+      System.arraycopy(b, offset, current, size, n);
+      size += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  // Passes the current buffer to the writer thread and takes an empty one,
+  // waiting if the writer is a full set of buffers behind.
+  private void handOff() throws IOException {
+    checkOpen();
+    try {
+      filled.put(new Chunk(current, size, null));
+      current = empty.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    size = 0;
+  }
+
+  // Waits until everything written so far has reached the sink, and
+  // flushes the sink.
+  public void flush() throws IOException {
+    checkOpen();
+    if (size > 0) {
+      handOff();
+    }
+    CountDownLatch flushed = new CountDownLatch(1);
+    try {
+      filled.put(new Chunk(null, 0, flushed));
+      flushed.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    checkOpen();
+  }
+
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      flush();
+    } finally {
+      closed = true;
+      try {
+        filled.put(new Chunk(null, 0, null));
+        writer.join();
+      } catch (InterruptedException e) {
+        writer.interrupt();
+        Thread.currentThread().interrupt();
+      }
+      sink.close();
+      pool.release(current);
+      for (byte[] buffer : empty) {
+        pool.release(buffer);
+      }
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  // A buffer to write; or, with no data, a flush request to signal when
+  // done, or the end of the stream when `flushed` is null too.
+  private static final class Chunk {
+    final byte[] data;
+    final int length;
+    final CountDownLatch flushed;
+
+    Chunk(byte[] data, int length, CountDownLatch flushed) {
+      this.data = data;
+      this.length = length;
+      this.flushed = flushed;
+    }
+  }
+}
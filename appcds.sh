@@ -0,0 +1,58 @@
+#!/bin/sh
+# Packs the compiled classes into huffman.jar and builds an AppCDS archive
+# for it, so that one-shot runs map their classes in ready-parsed instead
+# of loading and verifying them, then reports the time to compress a 1 KB
+# file with and without the archive against TARGET_MS.
+#
+# Usage: appcds.sh CLASSES_DIR [OUT_DIR]
+# Then:  java -XX:SharedArchiveFile=OUT_DIR/huffman.jsa \
+#          -XX:TieredStopAtLevel=1 -jar OUT_DIR/huffman.jar ...
+#
+# The archive is tied to the JDK that built it and to the jar's path and
+# contents; rebuild it after either changes (the JVM ignores a stale one).
+set -e
+classes=${1:?"usage: appcds.sh CLASSES_DIR [OUT_DIR]"}
+out=${2:-.}
+runs=${RUNS:-20}
+target=${TARGET_MS:-80}
+
+jar="$out/huffman.jar"
+jar cfe "$jar" HuffmanCodes -C "$classes" .
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+# Training runs over both directions of the framed format, on a sample
+# large enough to take the multi-block and read-ahead paths too.
+head -c 1024 "$jar" > "$work/small"
+head -c 4000000 /dev/urandom | od -An -tx1 | head -c 3000000 > "$work/large"
+for input in small large; do
+  java -XX:DumpLoadedClassList="$work/$input.compress.lst" -jar "$jar" \
+    --compress --checksum "$work/$input" "$work/$input.hf"
+  java -XX:DumpLoadedClassList="$work/$input.decompress.lst" -jar "$jar" \
+    --decompress "$work/$input.hf" "$work/$input.out"
+  cmp "$work/$input" "$work/$input.out"
+done
+# Each list numbers its classes from 0 ("id: N", JDK 21+), and the dump
+# rejects an id seen twice, so drop the ids and keep each line once, in
+# first-seen order.
+cat "$work"/*.lst | sed 's/ id: [0-9][0-9]*$//' | awk '!seen[$0]++' \
+  > "$work/classes.lst"
+java -Xshare:dump -XX:SharedClassListFile="$work/classes.lst" \
+  -XX:SharedArchiveFile="$out/huffman.jsa" -cp "$jar" > /dev/null
+
+# Average wall-clock milliseconds to compress the 1 KB sample.
+measure() {
+  start=$(date +%s%N)
+  i=0
+  while [ $i -lt $runs ]; do
+    java "$@" -jar "$jar" --compress "$work/small" "$work/small.hf"
+    i=$((i + 1))
+  done
+  echo $(( ($(date +%s%N) - start) / runs / 1000000 ))
+}
+# Same JIT flags for both, so the difference is the archive alone.
+plain=$(measure -Xshare:auto -XX:TieredStopAtLevel=1)
+shared=$(measure -XX:SharedArchiveFile="$out/huffman.jsa" -XX:TieredStopAtLevel=1)
+echo "1 KB compress: ${plain} ms without the archive, ${shared} ms with it" \
+  "(target ${target} ms)"
+[ "$shared" -le "$target" ]